@@ -0,0 +1,804 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Red-Black Tree kept as a structure of arrays: a node is an int slot, and its key,
+// links and color sit in parallel primitive arrays instead of a Node object.
+// Freed slots are chained through right[] and reused by later inserts.
+// The balancing code mirrors RbTree step for step, so getColorFlips() reports
+// exactly the same count for the same sequence of operations.
+public class ArrayRbTree implements BookIndex {
+    /** Slot 0 is the shared black leaf, the counterpart of RbTree's nullLeaf*/
+    private static final int NIL = 0;
+
+    /** Marks a missing parent, the counterpart of a null parent in RbTree*/
+    private static final int NONE = -1;
+
+    /** Deeper than any red-black tree of up to 2^31 nodes, see RbTree.MAX_DEPTH*/
+    private static final int MAX_DEPTH = 64;
+
+    /** Ranges of fewer books are deleted one at a time, see RbTree.SPLIT_MIN_BOOKS*/
+    private static final int SPLIT_MIN_BOOKS = 32;
+
+    private static final BookNode[] NO_BOOKS = new BookNode[0];
+
+    private static final int RED = 1;
+    private static final int BLACK = 0;
+
+    private int[] key;
+    private int[] parent;
+    private int[] left;
+    private int[] right;
+    private byte[] color;
+    private BookNode[] book;
+
+    private int root = NIL;
+    private int colorFlips = 0;
+
+    /** Head of the free-slot list, linked through right[]*/
+    private int freeHead = NONE;
+
+    /** First slot that has never been handed out*/
+    private int nextUnused = 1;
+
+    /** What split leaves behind: the trees of the keys below and from the split key on, and their black heights*/
+    private int splitLow;
+    private int splitHigh;
+    private int splitLowHeight;
+    private int splitHighHeight;
+
+    /** Black height of the tree join returned last*/
+    private int joinedHeight;
+
+    /** Split's walk down to the split key: the slots passed and their black heights*/
+    private final int[] splitPath = new int[MAX_DEPTH];
+    private final int[] splitHeights = new int[MAX_DEPTH];
+
+    public ArrayRbTree() {
+        this(16);
+    }
+
+    public ArrayRbTree(int initialCapacity) {
+        int capacity = Math.max(2, initialCapacity + 1);
+        key = new int[capacity];
+        parent = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        color = new byte[capacity];
+        book = new BookNode[capacity];
+        parent[NIL] = NONE;
+        color[NIL] = BLACK;
+    }
+
+    private int allocate() {
+        int node;
+        if (freeHead != NONE) {
+            node = freeHead;
+            freeHead = right[node];
+        } else {
+            if (nextUnused == key.length) {
+                grow();
+            }
+            node = nextUnused++;
+        }
+        return node;
+    }
+
+    private void release(int node) {
+        book[node] = null;
+        right[node] = freeHead;
+        freeHead = node;
+    }
+
+    private void grow() {
+        int capacity = key.length << 1;
+        key = Arrays.copyOf(key, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        color = Arrays.copyOf(color, capacity);
+        book = Arrays.copyOf(book, capacity);
+    }
+
+    // Balance the tree after deletion
+    private void fixDelete(int x) {
+        if (Trace.ON) Trace.event(TraceEvent.FIX_DELETE_START, key[x], color[x]);
+        int n;
+        while (x != root && color[x] == BLACK) {
+            if (Metrics.ON) Metrics.count(MetricCounter.DELETE_FIXUP_STEPS);
+            int xParent = parent[x];
+            if (x == left[xParent]) {
+                n = right[xParent];
+                if (color[n] == RED) {
+                    color[n] = BLACK;
+                    color[xParent] = RED;
+                    leftRotate(xParent);
+                    n = right[parent[x]];
+                }
+
+                if (color[left[n]] == BLACK && color[right[n]] == BLACK) {
+                    color[n] = RED;
+                    x = parent[x];
+                } else {
+                    if (color[right[n]] == BLACK) {
+                        color[left[n]] = BLACK;
+                        color[n] = RED;
+                        rightRotate(n);
+                        n = right[parent[x]];
+                    }
+
+                    color[n] = color[parent[x]];
+                    color[parent[x]] = BLACK;
+                    color[right[n]] = BLACK;
+                    leftRotate(parent[x]);
+                    x = root;
+                }
+            } else {
+                n = left[xParent];
+                if (color[n] == RED) {
+                    color[n] = BLACK;
+                    color[xParent] = RED;
+                    rightRotate(xParent);
+                    n = left[parent[x]];
+                }
+
+                if (color[left[n]] == BLACK && color[right[n]] == BLACK) {
+                    color[n] = RED;
+                    colorFlips++;
+                    x = parent[x];
+                } else {
+                    if (color[left[n]] == BLACK) {
+                        color[right[n]] = BLACK;
+                        color[n] = RED;
+                        leftRotate(n);
+                        n = left[parent[x]];
+                    }
+                    if (color[n] != color[parent[x]]) {
+                        colorFlips++;
+                    }
+                    color[n] = color[parent[x]];
+
+                    if (color[parent[x]] != BLACK) {
+                        color[parent[x]] = BLACK;
+                        colorFlips++;
+                    }
+                    color[left[n]] = BLACK;
+                    rightRotate(parent[x]);
+                    x = root;
+                }
+            }
+        }
+        color[x] = BLACK;
+        if (Trace.ON) Trace.event(TraceEvent.FIX_DELETE_END, key[x], color[x]);
+    }
+
+    private void rbTransplant(int u, int v) {
+        int uParent = parent[u];
+        if (uParent == NONE) {
+            root = v;
+        } else if (u == left[uParent]) {
+            left[uParent] = v;
+        } else {
+            right[uParent] = v;
+        }
+        parent[v] = uParent;
+    }
+
+    private void deleteNodeHelper(int node, int target) {
+        int temp = NIL;
+        int x, y;
+        while (node != NIL) {
+            if (key[node] == target) {
+                temp = node;
+            }
+
+            if (key[node] <= target) {
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+
+        if (temp == NIL) {
+            if (Trace.ON) Trace.event(TraceEvent.DELETE_MISSING, target);
+            return;
+        }
+
+        y = temp;
+        int yOriginalColor = color[y];
+        if (left[temp] == NIL) {
+            x = right[temp];
+            rbTransplant(temp, right[temp]);
+        } else if (right[temp] == NIL) {
+            x = left[temp];
+            rbTransplant(temp, left[temp]);
+        } else {
+            y = maximum(left[temp]);
+            yOriginalColor = color[y];
+            x = left[y];
+            if (parent[y] == temp) {
+                parent[x] = y;
+            } else {
+                rbTransplant(y, left[y]);
+                left[y] = left[temp];
+                parent[left[y]] = y;
+            }
+
+            rbTransplant(temp, y);
+            right[y] = right[temp];
+            parent[right[y]] = y;
+            color[y] = color[temp];
+            colorFlips++;
+        }
+        release(temp);
+        if (yOriginalColor == BLACK) {
+            fixDelete(x);
+            colorFlips++;  // Same accounting as RbTree.deleteNodeHelper
+        }
+    }
+
+    private void fixInsert(int newNode) {
+        if (Trace.ON) Trace.event(TraceEvent.FIX_INSERT_START, key[newNode], color[newNode]);
+        int uncleNode;
+        while (color[parent[newNode]] == RED) {
+            if (Metrics.ON) Metrics.count(MetricCounter.INSERT_FIXUP_STEPS);
+            int p = parent[newNode];
+            int g = parent[p];
+            if (p == right[g]) {
+                uncleNode = left[g];
+                if (color[uncleNode] == RED) {
+                    color[uncleNode] = BLACK;
+                    colorFlips++;
+                    color[p] = BLACK;
+                    colorFlips++;
+                    color[g] = RED;
+                    colorFlips++;
+                    newNode = g;
+                } else {
+                    if (newNode == left[p]) {
+                        newNode = p;
+                        rightRotate(newNode);
+                    }
+                    color[parent[newNode]] = BLACK;
+                    color[parent[parent[newNode]]] = RED;
+                    leftRotate(parent[parent[newNode]]);
+                }
+            } else {
+                uncleNode = right[g];
+
+                if (color[uncleNode] == RED) {
+                    color[uncleNode] = BLACK;
+                    colorFlips++;
+                    color[p] = BLACK;
+                    colorFlips++;
+                    color[g] = RED;
+                    colorFlips++;
+                    newNode = g;
+                } else {
+                    if (newNode == right[p]) {
+                        newNode = p;
+                        leftRotate(newNode);
+                    }
+                    color[parent[newNode]] = BLACK;
+                    colorFlips++;
+                    color[parent[parent[newNode]]] = RED;
+                    colorFlips++;
+                    rightRotate(parent[parent[newNode]]);
+                }
+            }
+            if (newNode == root) {
+                break;
+            }
+        }
+        if (color[root] == RED) {
+            color[root] = BLACK;
+            colorFlips--; // Same accounting as RbTree.fixInsert
+        }
+        if (Trace.ON) Trace.event(TraceEvent.FIX_INSERT_END, key[newNode], color[newNode]);
+    }
+
+    private void leftRotate(int x) {
+        if (Trace.ON) Trace.event(TraceEvent.ROTATE_LEFT, key[x], color[x]);
+        if (Metrics.ON) Metrics.count(MetricCounter.LEFT_ROTATIONS);
+        int y = right[x];
+        right[x] = left[y];
+        if (left[y] != NIL) {
+            parent[left[y]] = x;
+        }
+        parent[y] = parent[x];
+        if (parent[x] == NONE) {
+            root = y;
+        } else if (x == left[parent[x]]) {
+            left[parent[x]] = y;
+        } else {
+            right[parent[x]] = y;
+        }
+        left[y] = x;
+        parent[x] = y;
+    }
+
+    private void rightRotate(int grandParentNode) {
+        if (Trace.ON) Trace.event(TraceEvent.ROTATE_RIGHT, key[grandParentNode], color[grandParentNode]);
+        if (Metrics.ON) Metrics.count(MetricCounter.RIGHT_ROTATIONS);
+        int parentNode = left[grandParentNode];
+        left[grandParentNode] = right[parentNode];
+        if (right[parentNode] != NIL) {
+            parent[right[parentNode]] = grandParentNode;
+        }
+        parent[parentNode] = parent[grandParentNode];
+        if (parent[grandParentNode] == NONE) {
+            root = parentNode;
+        } else if (grandParentNode == right[parent[grandParentNode]]) {
+            right[parent[grandParentNode]] = parentNode;
+        } else {
+            left[parent[grandParentNode]] = parentNode;
+        }
+        right[parentNode] = grandParentNode;
+        parent[grandParentNode] = parentNode;
+    }
+
+    private void insert(int newKey, BookNode newBook) {
+        int y = NONE;
+        int x = root;
+
+        while (x != NIL) {
+            if (newKey == key[x]) {
+                // Key already indexed, keep the node and point it at the new book
+                book[x] = newBook;
+                return;
+            }
+            y = x;
+            if (newKey < key[x]) {
+                x = left[x];
+            } else {
+                x = right[x];
+            }
+        }
+
+        int node = allocate();
+        key[node] = newKey;
+        book[node] = newBook;
+        left[node] = NIL;
+        right[node] = NIL;
+        color[node] = RED; // new node must be red
+
+        parent[node] = y;
+        if (y == NONE) {
+            root = node;
+        } else if (newKey < key[y]) {
+            left[y] = node;
+        } else {
+            right[y] = node;
+        }
+
+        if (y == NONE) {
+            color[node] = BLACK;
+            return;
+        }
+
+        if (parent[y] == NONE) {
+            return;
+        }
+
+        fixInsert(node);
+    }
+
+    private int maximum(int node) {
+        while (right[node] != NIL) {
+            node = right[node];
+        }
+        return node;
+    }
+
+    private int minimum(int node) {
+        while (left[node] != NIL) {
+            node = left[node];
+        }
+        return node;
+    }
+
+    // Next slot in key order, or NIL after the last one
+    private int successor(int node) {
+        if (right[node] != NIL) {
+            return minimum(right[node]);
+        }
+        int parentNode = parent[node];
+        while (parentNode != NONE && node == right[parentNode]) {
+            node = parentNode;
+            parentNode = parent[parentNode];
+        }
+        return parentNode == NONE ? NIL : parentNode;
+    }
+
+    // Smallest slot with key >= target (key > target when not inclusive), or NIL
+    private int ceilingNode(int target, boolean inclusive) {
+        int candidate = NIL;
+        int node = root;
+        for (int depth = 0; node != NIL; depth++) {
+            if (depth == MAX_DEPTH) {
+                throw new IllegalStateException("Tree changed during the walk");
+            }
+            if (key[node] > target || (inclusive && key[node] == target)) {
+                candidate = node;
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return candidate;
+    }
+
+    // Largest slot with key <= target (key < target when not inclusive), or NIL
+    private int floorNode(int target, boolean inclusive) {
+        int candidate = NIL;
+        int node = root;
+        for (int depth = 0; node != NIL; depth++) {
+            if (depth == MAX_DEPTH) {
+                throw new IllegalStateException("Tree changed during the walk");
+            }
+            if (key[node] < target || (inclusive && key[node] == target)) {
+                candidate = node;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return candidate;
+    }
+
+    @Override
+    public void insertKey(int newKey, BookNode newBook) {
+        insert(newKey, newBook);
+    }
+
+    @Override
+    public void deleteNode(int data) {
+        deleteNodeHelper(root, data);
+    }
+
+    @Override
+    public int getColorFlips() {
+        return colorFlips;
+    }
+
+    // Same splits and join as RbTree.deleteRange, so both trees end in the same shape with the
+    // same flip count. Without subtree sizes the range is counted only up to SPLIT_MIN_BOOKS, which
+    // is all the choice between the two ways needs.
+    @Override
+    public BookNode[] deleteRange(int lo, int hi) {
+        int first = lo > hi ? NIL : ceilingNode(lo, true);
+        int count = 0;
+        for (int node = first; node != NIL && key[node] <= hi && count < SPLIT_MIN_BOOKS; node = successor(node)) {
+            count++;
+        }
+        if (count == 0) {
+            return NO_BOOKS;
+        }
+        if (count < SPLIT_MIN_BOOKS) {
+            BookNode[] books = new BookNode[count];
+            for (int i = 0, node = first; i < count; i++, node = successor(node)) {
+                books[i] = book[node];
+            }
+            for (BookNode b : books) {
+                deleteNode(b.getBookId());
+            }
+            return books;
+        }
+        split(root, blackHeight(root), lo);
+        int below = splitLow;
+        int belowHeight = splitLowHeight;
+        int range = splitHigh;
+        int above = NIL;
+        int aboveHeight = 0;
+        if (hi < Integer.MAX_VALUE) {
+            split(range, splitHighHeight, hi + 1);
+            range = splitLow;
+            above = splitHigh;
+            aboveHeight = splitHighHeight;
+        }
+        ArrayList<BookNode> books = new ArrayList<>();
+        collect(range, books);
+
+        if (below == NIL) {
+            root = above;
+        } else if (above == NIL) {
+            root = below;
+        } else {
+            int middle = maximum(below);
+            split(below, belowHeight, key[middle]);
+            root = join(splitLow, splitLowHeight, middle, above, aboveHeight);
+        }
+        parent[root] = NONE;
+        recolor(root, BLACK);
+        return books.toArray(NO_BOOKS);
+    }
+
+    // RbTree.split over slots
+    private void split(int tree, int height, int target) {
+        int[] path = splitPath;
+        int[] heights = splitHeights;
+        int depth = 0;
+        for (int node = tree; node != NIL; node = target <= key[node] ? left[node] : right[node]) {
+            path[depth] = node;
+            heights[depth++] = height;
+            if (color[node] == BLACK) {
+                height--;
+            }
+        }
+        int low = NIL;
+        int high = NIL;
+        int lowHeight = 0;
+        int highHeight = 0;
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            int childHeight = color[node] == BLACK ? heights[i] - 1 : heights[i];
+            if (target <= key[node]) {
+                high = join(high, highHeight, node, detach(right[node]), childHeight);
+                highHeight = joinedHeight;
+            } else {
+                low = join(detach(left[node]), childHeight, node, low, lowHeight);
+                lowHeight = joinedHeight;
+            }
+        }
+        splitLow = low;
+        splitHigh = high;
+        splitLowHeight = lowHeight;
+        splitHighHeight = highHeight;
+    }
+
+    // RbTree.join over slots, sets joinedHeight
+    private int join(int leftTree, int leftHeight, int middle, int rightTree, int rightHeight) {
+        parent[middle] = NONE;
+        if (color[leftTree] == RED) {
+            recolor(leftTree, BLACK);
+            leftHeight++;
+        }
+        if (color[rightTree] == RED) {
+            recolor(rightTree, BLACK);
+            rightHeight++;
+        }
+        if (leftHeight == rightHeight) {
+            link(middle, leftTree, rightTree);
+            recolor(middle, RED);
+            joinedHeight = leftHeight;
+            return middle;
+        }
+        boolean intoLeft = leftHeight > rightHeight;
+        int shorter = intoLeft ? rightTree : leftTree;
+        int target = intoLeft ? rightHeight : leftHeight;
+        int height = intoLeft ? leftHeight : rightHeight;
+        joinedHeight = height;
+
+        int parentNode = NONE;
+        int node = intoLeft ? leftTree : rightTree;
+        while (color[node] != BLACK || height != target) {
+            if (color[node] == BLACK) {
+                height--;
+            }
+            parentNode = node;
+            node = intoLeft ? right[node] : left[node];
+        }
+        if (intoLeft) {
+            link(middle, node, shorter);
+            right[parentNode] = middle;
+        } else {
+            link(middle, shorter, node);
+            left[parentNode] = middle;
+        }
+        parent[middle] = parentNode;
+        recolor(middle, RED);
+
+        int top = middle;
+        while (color[top] == RED && parent[top] != NONE && color[parent[top]] == RED) {
+            int parentTop = parent[top];
+            int grandParent = parent[parentTop];
+            recolor(top, BLACK);
+            if (intoLeft) {
+                leftRotate(grandParent);
+            } else {
+                rightRotate(grandParent);
+            }
+            top = parentTop;
+        }
+        while (parent[top] != NONE) {
+            top = parent[top];
+        }
+        return top;
+    }
+
+    private void link(int node, int leftTree, int rightTree) {
+        left[node] = leftTree;
+        right[node] = rightTree;
+        if (leftTree != NIL) {
+            parent[leftTree] = node;
+        }
+        if (rightTree != NIL) {
+            parent[rightTree] = node;
+        }
+    }
+
+    private int detach(int node) {
+        if (node != NIL) {
+            parent[node] = NONE;
+        }
+        return node;
+    }
+
+    private void recolor(int node, int newColor) {
+        if (node != NIL && color[node] != newColor) {
+            color[node] = (byte) newColor;
+            colorFlips++;
+        }
+    }
+
+    private int blackHeight(int node) {
+        int height = 0;
+        for (; node != NIL; node = left[node]) {
+            if (color[node] == BLACK) {
+                height++;
+            }
+        }
+        return height;
+    }
+
+    // In-order books of the subtree into books, handing every slot back to the free list
+    private void collect(int node, ArrayList<BookNode> books) {
+        if (node == NIL) {
+            return;
+        }
+        int rightChild = right[node];
+        collect(left[node], books);
+        books.add(book[node]);
+        release(node);
+        collect(rightChild, books);
+    }
+
+    @Override
+    public int height() {
+        return height(root);
+    }
+
+    private int height(int node) {
+        return node == NIL ? 0 : 1 + Math.max(height(left[node]), height(right[node]));
+    }
+
+    // Same build and coloring as RbTree.bulkLoad, the deepest level red whenever it is below the
+    // root; slots are handed out in key order, so a range scan walks the arrays front to back
+    @Override
+    public void bulkLoad(BookNode[] books, int count) {
+        reset(count);
+        int bottom = count > 0 ? 31 - Integer.numberOfLeadingZeros(count) : 0;
+        nextUnused = count + 1;
+        root = build(books, 0, count - 1, NONE, 0, bottom);
+    }
+
+    private int build(BookNode[] books, int lo, int hi, int parentNode, int depth, int bottom) {
+        if (lo > hi) {
+            return NIL;
+        }
+        int mid = (lo + hi) >>> 1;
+        int node = mid + 1;
+        key[node] = books[mid].getBookId();
+        book[node] = books[mid];
+        parent[node] = parentNode;
+        color[node] = BLACK;
+        if (depth == bottom && depth > 0) {
+            color[node] = RED;
+            colorFlips++;
+        }
+        left[node] = build(books, lo, mid - 1, node, depth + 1, bottom);
+        right[node] = build(books, mid + 1, hi, node, depth + 1, bottom);
+        return node;
+    }
+
+    // Fresh arrays sized for count nodes, nothing allocated yet
+    private void reset(int count) {
+        int capacity = Math.max(2, count + 1);
+        key = new int[capacity];
+        parent = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        color = new byte[capacity];
+        book = new BookNode[capacity];
+        parent[NIL] = NONE;
+        color[NIL] = BLACK;
+        root = NIL;
+        freeHead = NONE;
+        nextUnused = 1;
+    }
+
+    @Override
+    public void preorder(ShapeVisitor visitor) throws IOException {
+        preorder(root, visitor);
+    }
+
+    private void preorder(int node, ShapeVisitor visitor) throws IOException {
+        if (node == NIL) {
+            return;
+        }
+        visitor.visit(book[node], color[node] == RED);
+        preorder(left[node], visitor);
+        preorder(right[node], visitor);
+    }
+
+    // Same stack walk as RbTree.restore, the books land in slots 1..count in preorder
+    @Override
+    public void restore(BookNode[] books, boolean[] red, int count, int colorFlips) {
+        reset(count);
+        // A red-black tree is at most 2 log2(n + 1) deep, and the stack never holds more than one path
+        int[] path = new int[2 * Integer.SIZE];
+        int depth = 0;
+        for (int i = 0; i < count; i++) {
+            int node = nextUnused++;
+            key[node] = books[i].getBookId();
+            book[node] = books[i];
+            color[node] = (byte) (red[i] ? RED : BLACK);
+            if (depth == 0) {
+                root = node;
+                parent[node] = NONE;
+            } else if (key[node] < key[path[depth - 1]]) {
+                parent[node] = path[depth - 1];
+                left[parent[node]] = node;
+            } else {
+                int parentNode = path[--depth];
+                while (depth > 0 && key[path[depth - 1]] < key[node]) {
+                    parentNode = path[--depth];
+                }
+                parent[node] = parentNode;
+                right[parentNode] = node;
+            }
+            path[depth++] = node;
+        }
+        this.colorFlips = colorFlips;
+    }
+
+    @Override
+    public Iterator<BookNode> range(int lo, int hi) {
+        return new RangeIterator(ceilingNode(lo, true), hi);
+    }
+
+    @Override
+    public BookNode floor(int target) {
+        return book[floorNode(target, true)];
+    }
+
+    @Override
+    public BookNode ceiling(int target) {
+        return book[ceilingNode(target, true)];
+    }
+
+    @Override
+    public BookNode lower(int target) {
+        return book[floorNode(target, false)];
+    }
+
+    @Override
+    public BookNode higher(int target) {
+        return book[ceilingNode(target, false)];
+    }
+
+    private class RangeIterator implements Iterator<BookNode> {
+        private int next;
+        private final int hi;
+
+        RangeIterator(int first, int hi) {
+            this.next = first;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NIL && key[next] <= hi;
+        }
+
+        @Override
+        public BookNode next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int current = next;
+            next = successor(current);
+            return book[current];
+        }
+    }
+}
@@ -0,0 +1,530 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Ordered index as a B+tree of wide pages, for catalogues that are mostly scanned in id order.
+// Every page keeps up to CAPACITY keys in one int array, so a lookup reads a handful of
+// contiguous arrays instead of chasing a pointer per key as RbTree does. Books sit in the leaves
+// only, next to their keys, and the leaves are linked both ways: PrintBooks walks along the
+// leaf level and FindClosestBook steps to a neighbouring leaf when the target is at an edge.
+// Inner pages hold separators: child i holds the keys below keys[i], child i + 1 those from it on.
+// Pages split in half when full and borrow from or merge with a sibling when a delete leaves
+// them under half full. The exception is the last leaf: an insert past the end of a full one
+// starts a new leaf and leaves the full one as it is, so ascending ids pack the leaves.
+// There is no red-black tree here, so no color flips are counted and ColorFlipCount reports n/a.
+public class BPlusTree implements BookIndex {
+    /** Keys per page, 64 ints are four cache lines. The in-page search is a binary search over them*/
+    private static final int CAPACITY = 64;
+
+    /** Fewest keys a page other than the root or the last leaf keeps after a delete*/
+    private static final int MIN_KEYS = CAPACITY / 2;
+
+    /** More levels than a tree of 2^31 keys can have when every inner page has MIN_KEYS + 1 children*/
+    private static final int MAX_LEVELS = 16;
+
+    private Page root = new Leaf();
+
+    /** Levels from the root down to the leaves, 1 while the root is a leaf*/
+    private int levels = 1;
+
+    /** The walk down of the running insert or delete: inner pages passed and the child taken in each*/
+    private final Inner[] path = new Inner[MAX_LEVELS];
+    private final int[] slots = new int[MAX_LEVELS];
+
+    /** Scratch room for an inner page being split, one separator and one child over capacity*/
+    private final int[] splitKeys = new int[CAPACITY + 1];
+    private final Page[] splitChildren = new Page[CAPACITY + 2];
+
+    private abstract static class Page {
+        final int[] keys = new int[CAPACITY];
+        int size;
+    }
+
+    private static final class Leaf extends Page {
+        final BookNode[] books = new BookNode[CAPACITY];
+        Leaf prev;
+        Leaf next;
+    }
+
+    private static final class Inner extends Page {
+        final Page[] children = new Page[CAPACITY + 1];
+    }
+
+    @Override
+    public void insertKey(int key, BookNode book) {
+        int depth = descend(key);
+        Leaf leaf = (Leaf) (depth == 0 ? root : path[depth - 1].children[slots[depth - 1]]);
+        int at = lowerBound(leaf.keys, leaf.size, key);
+        if (at < leaf.size && leaf.keys[at] == key) {
+            leaf.books[at] = book;
+            return;
+        }
+        if (leaf.size < CAPACITY) {
+            insertAt(leaf, at, key, book);
+            return;
+        }
+
+        if (Metrics.ON) Metrics.count(MetricCounter.PAGE_SPLITS);
+        Leaf right = new Leaf();
+        if (at == CAPACITY && leaf.next == null) {
+            // Appending to the last leaf, it stays full and the key starts the next one
+            right.keys[0] = key;
+            right.books[0] = book;
+            right.size = 1;
+        } else {
+            int half = CAPACITY / 2;
+            System.arraycopy(leaf.keys, half, right.keys, 0, CAPACITY - half);
+            System.arraycopy(leaf.books, half, right.books, 0, CAPACITY - half);
+            Arrays.fill(leaf.books, half, CAPACITY, null);
+            leaf.size = half;
+            right.size = CAPACITY - half;
+            if (at <= half) {
+                insertAt(leaf, at, key, book);
+            } else {
+                insertAt(right, at - half, key, book);
+            }
+        }
+        right.next = leaf.next;
+        right.prev = leaf;
+        if (leaf.next != null) {
+            leaf.next.prev = right;
+        }
+        leaf.next = right;
+        addChild(depth, right.keys[0], right);
+    }
+
+    @Override
+    public void deleteNode(int key) {
+        int depth = descend(key);
+        Leaf leaf = (Leaf) (depth == 0 ? root : path[depth - 1].children[slots[depth - 1]]);
+        int at = lowerBound(leaf.keys, leaf.size, key);
+        if (at == leaf.size || leaf.keys[at] != key) {
+            if (Trace.ON) Trace.event(TraceEvent.DELETE_MISSING, key);
+            return;
+        }
+        System.arraycopy(leaf.keys, at + 1, leaf.keys, at, leaf.size - at - 1);
+        System.arraycopy(leaf.books, at + 1, leaf.books, at, leaf.size - at - 1);
+        leaf.books[--leaf.size] = null;
+
+        Page page = leaf;
+        for (int d = depth - 1; d >= 0 && page.size < MIN_KEYS; d--) {
+            if (!rebalance(path[d], slots[d])) {
+                break;
+            }
+            page = path[d];
+        }
+        if (root.size == 0 && levels > 1) {
+            root = ((Inner) root).children[0];
+            levels--;
+        }
+    }
+
+    // Walk down to the leaf for key, recording the inner pages on the way in path and slots.
+    // Returns how many were recorded.
+    private int descend(int key) {
+        Page page = root;
+        for (int depth = 0; depth < levels - 1; depth++) {
+            Inner inner = (Inner) page;
+            int slot = upperBound(inner.keys, inner.size, key);
+            path[depth] = inner;
+            slots[depth] = slot;
+            page = inner.children[slot];
+        }
+        return levels - 1;
+    }
+
+    private static void insertAt(Leaf leaf, int at, int key, BookNode book) {
+        System.arraycopy(leaf.keys, at, leaf.keys, at + 1, leaf.size - at);
+        System.arraycopy(leaf.books, at, leaf.books, at + 1, leaf.size - at);
+        leaf.keys[at] = key;
+        leaf.books[at] = book;
+        leaf.size++;
+    }
+
+    // Hang child, whose smallest key is separator, right of the page reached through path[depth - 1],
+    // splitting full inner pages on the way up and growing a new root when the old one splits
+    private void addChild(int depth, int separator, Page child) {
+        for (int d = depth - 1; d >= 0; d--) {
+            Inner parent = path[d];
+            int at = slots[d];
+            if (parent.size < CAPACITY) {
+                insertAt(parent, at, separator, child);
+                return;
+            }
+            if (Metrics.ON) Metrics.count(MetricCounter.PAGE_SPLITS);
+            // Lay out the CAPACITY + 1 separators and their children in order: the lower half
+            // stays, the middle separator moves up and the upper half moves to a new page
+            int[] keys = splitKeys;
+            Page[] children = splitChildren;
+            System.arraycopy(parent.keys, 0, keys, 0, at);
+            keys[at] = separator;
+            System.arraycopy(parent.keys, at, keys, at + 1, CAPACITY - at);
+            System.arraycopy(parent.children, 0, children, 0, at + 1);
+            children[at + 1] = child;
+            System.arraycopy(parent.children, at + 1, children, at + 2, CAPACITY - at);
+            int half = CAPACITY / 2;
+            Inner right = new Inner();
+            System.arraycopy(keys, 0, parent.keys, 0, half);
+            System.arraycopy(children, 0, parent.children, 0, half + 1);
+            Arrays.fill(parent.children, half + 1, CAPACITY + 1, null);
+            parent.size = half;
+            System.arraycopy(keys, half + 1, right.keys, 0, CAPACITY - half);
+            System.arraycopy(children, half + 1, right.children, 0, CAPACITY - half + 1);
+            right.size = CAPACITY - half;
+            Arrays.fill(children, null);
+            separator = keys[half];
+            child = right;
+        }
+        Inner newRoot = new Inner();
+        newRoot.keys[0] = separator;
+        newRoot.children[0] = root;
+        newRoot.children[1] = child;
+        newRoot.size = 1;
+        root = newRoot;
+        levels++;
+    }
+
+    // Insert separator at index at and child right of it
+    private static void insertAt(Inner page, int at, int separator, Page child) {
+        System.arraycopy(page.keys, at, page.keys, at + 1, page.size - at);
+        System.arraycopy(page.children, at + 1, page.children, at + 2, page.size - at);
+        page.keys[at] = separator;
+        page.children[at + 1] = child;
+        page.size++;
+    }
+
+    // Remove separator at index at and the child right of it
+    private static void removeAt(Inner page, int at) {
+        System.arraycopy(page.keys, at + 1, page.keys, at, page.size - at - 1);
+        System.arraycopy(page.children, at + 2, page.children, at + 1, page.size - at - 1);
+        page.children[page.size--] = null;
+    }
+
+    // Refill parent.children[slot], which fell under MIN_KEYS, from a sibling, the left one when
+    // there is one. Borrows a key when the sibling can spare it, otherwise merges the two pages.
+    // Returns true after a merge, which took a separator out of parent.
+    private boolean rebalance(Inner parent, int slot) {
+        boolean fromLeft = slot > 0;
+        int leftSlot = fromLeft ? slot - 1 : slot;
+        Page left = parent.children[leftSlot];
+        Page right = parent.children[leftSlot + 1];
+        Page sibling = fromLeft ? left : right;
+        if (sibling.size > MIN_KEYS) {
+            if (left instanceof Leaf) {
+                borrow((Leaf) left, (Leaf) right, fromLeft);
+                parent.keys[leftSlot] = right.keys[0];
+            } else {
+                parent.keys[leftSlot] = borrow((Inner) left, (Inner) right, parent.keys[leftSlot], fromLeft);
+            }
+            return false;
+        }
+        if (Metrics.ON) Metrics.count(MetricCounter.PAGE_MERGES);
+        if (left instanceof Leaf) {
+            merge((Leaf) left, (Leaf) right);
+        } else {
+            merge((Inner) left, (Inner) right, parent.keys[leftSlot]);
+        }
+        removeAt(parent, leftSlot);
+        return true;
+    }
+
+    // Move one book across the boundary between two neighbouring leaves, from left to right when fromLeft
+    private static void borrow(Leaf left, Leaf right, boolean fromLeft) {
+        if (fromLeft) {
+            insertAt(right, 0, left.keys[left.size - 1], left.books[left.size - 1]);
+            left.books[--left.size] = null;
+        } else {
+            insertAt(left, left.size, right.keys[0], right.books[0]);
+            System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+            System.arraycopy(right.books, 1, right.books, 0, right.size - 1);
+            right.books[--right.size] = null;
+        }
+    }
+
+    // Rotate one child through the separator between two neighbouring inner pages, returns the new separator
+    private static int borrow(Inner left, Inner right, int separator, boolean fromLeft) {
+        if (fromLeft) {
+            System.arraycopy(right.keys, 0, right.keys, 1, right.size);
+            System.arraycopy(right.children, 0, right.children, 1, right.size + 1);
+            right.keys[0] = separator;
+            right.children[0] = left.children[left.size];
+            right.size++;
+            left.children[left.size] = null;
+            return left.keys[--left.size];
+        }
+        left.keys[left.size] = separator;
+        left.children[++left.size] = right.children[0];
+        int up = right.keys[0];
+        System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+        System.arraycopy(right.children, 1, right.children, 0, right.size);
+        right.children[right.size--] = null;
+        return up;
+    }
+
+    private static void merge(Leaf left, Leaf right) {
+        System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+        System.arraycopy(right.books, 0, left.books, left.size, right.size);
+        left.size += right.size;
+        left.next = right.next;
+        if (right.next != null) {
+            right.next.prev = left;
+        }
+    }
+
+    private static void merge(Inner left, Inner right, int separator) {
+        left.keys[left.size] = separator;
+        System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+        System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+        left.size += right.size + 1;
+    }
+
+    // Index of the first of keys[0..size) that is >= key, size if there is none
+    private static int lowerBound(int[] keys, int size, int key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Index of the first of keys[0..size) that is > key, size if there is none
+    private static int upperBound(int[] keys, int size, int key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // The leaf whose key range takes in key
+    private Leaf leafFor(int key) {
+        Page page = root;
+        for (int level = levels; level > 1; level--) {
+            Inner inner = (Inner) page;
+            page = inner.children[upperBound(inner.keys, inner.size, key)];
+        }
+        return (Leaf) page;
+    }
+
+    @Override
+    public int getColorFlips() {
+        return 0;
+    }
+
+    @Override
+    public boolean tracksColorFlips() {
+        return false;
+    }
+
+    // Pages on the path from the root to a leaf, the same for every leaf
+    @Override
+    public int height() {
+        return levels;
+    }
+
+    @Override
+    public Iterator<BookNode> range(int lo, int hi) {
+        Leaf leaf = leafFor(lo);
+        return new LeafIterator(leaf, lowerBound(leaf.keys, leaf.size, lo), hi);
+    }
+
+    @Override
+    public BookNode floor(int key) {
+        Leaf leaf = leafFor(key);
+        return before(leaf, upperBound(leaf.keys, leaf.size, key));
+    }
+
+    @Override
+    public BookNode ceiling(int key) {
+        Leaf leaf = leafFor(key);
+        return from(leaf, lowerBound(leaf.keys, leaf.size, key));
+    }
+
+    @Override
+    public BookNode lower(int key) {
+        Leaf leaf = leafFor(key);
+        return before(leaf, lowerBound(leaf.keys, leaf.size, key));
+    }
+
+    @Override
+    public BookNode higher(int key) {
+        Leaf leaf = leafFor(key);
+        return from(leaf, upperBound(leaf.keys, leaf.size, key));
+    }
+
+    // The book just before index at of leaf, which may be the last one of the leaf before
+    private static BookNode before(Leaf leaf, int at) {
+        if (at > 0) {
+            return leaf.books[at - 1];
+        }
+        Leaf prev = leaf.prev;
+        return prev == null ? null : prev.books[prev.size - 1];
+    }
+
+    // The book at index at of leaf, which may be past its end and so the first one of the next leaf
+    private static BookNode from(Leaf leaf, int at) {
+        if (at < leaf.size) {
+            return leaf.books[at];
+        }
+        Leaf next = leaf.next;
+        return next == null ? null : next.books[0];
+    }
+
+    // Whole leaves inside the range are counted by their size, so this is O(log n + k / CAPACITY)
+    @Override
+    public int countInRange(int lo, int hi) {
+        if (lo > hi) {
+            return 0;
+        }
+        Leaf leaf = leafFor(lo);
+        int at = lowerBound(leaf.keys, leaf.size, lo);
+        int count = 0;
+        while (leaf != null) {
+            int end = upperBound(leaf.keys, leaf.size, hi);
+            count += end - at;
+            if (end < leaf.size) {
+                break;
+            }
+            leaf = leaf.next;
+            at = 0;
+        }
+        return count;
+    }
+
+    // Skips whole leaves by their size, O(k / CAPACITY)
+    @Override
+    public BookNode select(int k) {
+        if (k < 0) {
+            return null;
+        }
+        Page page = root;
+        for (int level = levels; level > 1; level--) {
+            page = ((Inner) page).children[0];
+        }
+        for (Leaf leaf = (Leaf) page; leaf != null; leaf = leaf.next) {
+            if (k < leaf.size) {
+                return leaf.books[k];
+            }
+            k -= leaf.size;
+        }
+        return null;
+    }
+
+    // Fills the leaves, then every level above, with the pages of a level holding as near the
+    // same number of entries as they can, so no page but the root ends up under MIN_KEYS
+    @Override
+    public void bulkLoad(BookNode[] books, int count) {
+        int pages = Math.max(1, (count + CAPACITY - 1) / CAPACITY);
+        Page[] level = new Page[pages];
+        int[] lowest = new int[pages];
+        Leaf prev = null;
+        for (int p = 0, from = 0; p < pages; p++) {
+            int to = (int) ((long) count * (p + 1) / pages);
+            Leaf leaf = new Leaf();
+            for (int i = from; i < to; i++) {
+                leaf.keys[i - from] = books[i].getBookId();
+                leaf.books[i - from] = books[i];
+            }
+            leaf.size = to - from;
+            leaf.prev = prev;
+            if (prev != null) {
+                prev.next = leaf;
+            }
+            prev = leaf;
+            level[p] = leaf;
+            lowest[p] = leaf.keys[0];
+            from = to;
+        }
+        int height = 1;
+        while (pages > 1) {
+            int parents = (pages + CAPACITY) / (CAPACITY + 1);
+            Page[] above = new Page[parents];
+            int[] aboveLowest = new int[parents];
+            for (int p = 0, from = 0; p < parents; p++) {
+                int to = (int) ((long) pages * (p + 1) / parents);
+                Inner inner = new Inner();
+                for (int i = from; i < to; i++) {
+                    inner.children[i - from] = level[i];
+                    if (i > from) {
+                        inner.keys[i - from - 1] = lowest[i];
+                    }
+                }
+                inner.size = to - from - 1;
+                above[p] = inner;
+                aboveLowest[p] = lowest[from];
+                from = to;
+            }
+            level = above;
+            lowest = aboveLowest;
+            pages = parents;
+            height++;
+        }
+        root = level[0];
+        levels = height;
+    }
+
+    // No shape to keep, the books go out in key order
+    @Override
+    public void preorder(ShapeVisitor visitor) throws IOException {
+        for (Iterator<BookNode> books = range(Integer.MIN_VALUE, Integer.MAX_VALUE); books.hasNext(); ) {
+            visitor.visit(books.next(), false);
+        }
+    }
+
+    // A snapshot taken by a red-black tree lists the books in preorder, they are sorted first
+    @Override
+    public void restore(BookNode[] books, boolean[] red, int count, int colorFlips) {
+        for (int i = 1; i < count; i++) {
+            if (books[i - 1].getBookId() > books[i].getBookId()) {
+                books = Arrays.copyOf(books, count);
+                Arrays.sort(books, Comparator.comparingInt(BookNode::getBookId));
+                break;
+            }
+        }
+        bulkLoad(books, count);
+    }
+
+    // Walks the leaf level from a starting position until a key above hi
+    private static final class LeafIterator implements Iterator<BookNode> {
+        private Leaf leaf;
+        private int at;
+        private final int hi;
+
+        LeafIterator(Leaf leaf, int at, int hi) {
+            this.leaf = leaf;
+            this.at = at;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (leaf != null && at == leaf.size) {
+                leaf = leaf.next;
+                at = 0;
+            }
+            return leaf != null && leaf.keys[at] <= hi;
+        }
+
+        @Override
+        public BookNode next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return leaf.books[at++];
+        }
+    }
+}
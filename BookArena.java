@@ -0,0 +1,300 @@
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Off-heap book records for catalogues too large to keep as objects (-Dgator.store=offheap).
+// Every book is a fixed 16-byte record in direct memory:
+//   [int name ref][int author ref][int borrowedBy][byte available][3 bytes padding]
+// with the names and authors interned once into a StringPool. The records sit in 1 MB direct
+// chunks that are added as the catalogue grows, so the garbage collector only ever sees the
+// chunk objects and a small ArenaBookNode handle per book. Freed records are reused by the
+// next insert.
+final class BookArena {
+    private static final int RECORD_SHIFT = 4;
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+
+    private static final int NAME = 0;
+    private static final int AUTHOR = 4;
+    private static final int BORROWED_BY = 8;
+    private static final int AVAILABLE = 12;
+
+    final StringPool strings = new StringPool();
+
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+
+    /** First record that has never been handed out*/
+    private int nextRecord = 0;
+
+    /** Records given back by release, reused before nextRecord moves on*/
+    private int[] free = new int[16];
+    private int freeCount = 0;
+
+    BookNode newBook(int bookId, String bookName, String authorName, boolean availabilityStatus, ReservationNode reservationNode) {
+        int record = freeCount > 0 ? free[--freeCount] : nextRecord();
+        ByteBuffer chunk = chunk(record);
+        int at = offset(record);
+        chunk.putInt(at + NAME, strings.intern(bookName));
+        chunk.putInt(at + AUTHOR, strings.intern(authorName));
+        chunk.putInt(at + BORROWED_BY, 0);
+        chunk.put(at + AVAILABLE, (byte) (availabilityStatus ? 1 : 0));
+        return new ArenaBookNode(bookId, reservationNode, this, record);
+    }
+
+    // Hand the book's record back; nobody may read through the book afterwards
+    void release(ArenaBookNode book) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, 2 * free.length);
+        }
+        free[freeCount++] = book.record;
+    }
+
+    private int nextRecord() {
+        if (nextRecord == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Book arena is full");
+        }
+        int record = nextRecord++;
+        int chunk = record >>> CHUNK_SHIFT;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunk + 1);
+            chunks[chunk] = ByteBuffer.allocateDirect(CHUNK_RECORDS << RECORD_SHIFT).order(ByteOrder.nativeOrder());
+        }
+        return record;
+    }
+
+    private ByteBuffer chunk(int record) {
+        return chunks[record >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int record) {
+        return (record & (CHUNK_RECORDS - 1)) << RECORD_SHIFT;
+    }
+
+    int nameRef(int record) {
+        return chunk(record).getInt(offset(record) + NAME);
+    }
+
+    int authorRef(int record) {
+        return chunk(record).getInt(offset(record) + AUTHOR);
+    }
+
+    int getBorrowedBy(int record) {
+        return chunk(record).getInt(offset(record) + BORROWED_BY);
+    }
+
+    void setBorrowedBy(int record, int borrowedBy) {
+        chunk(record).putInt(offset(record) + BORROWED_BY, borrowedBy);
+    }
+
+    boolean getAvailabilityStatus(int record) {
+        return chunk(record).get(offset(record) + AVAILABLE) != 0;
+    }
+
+    void setAvailabilityStatus(int record, boolean availabilityStatus) {
+        chunk(record).put(offset(record) + AVAILABLE, (byte) (availabilityStatus ? 1 : 0));
+    }
+}
+
+// Handle of a book kept in a BookArena: the id and wait list, plus the number of its record
+final class ArenaBookNode extends BookNode {
+    private final BookArena arena;
+    final int record;
+
+    ArenaBookNode(int bookId, ReservationNode reservationNode, BookArena arena, int record) {
+        super(bookId, reservationNode);
+        this.arena = arena;
+        this.record = record;
+    }
+
+    public String getBookName() {
+        return arena.strings.get(arena.nameRef(record));
+    }
+
+    public String getAuthorName() {
+        return arena.strings.get(arena.authorRef(record));
+    }
+
+    public boolean getAvailabilityStatus() {
+        return arena.getAvailabilityStatus(record);
+    }
+
+    public int getBorrowedBy() {
+        return arena.getBorrowedBy(record);
+    }
+
+    public void setAvailabilityStatus(boolean availabilityStatus) {
+        arena.setAvailabilityStatus(record, availabilityStatus);
+    }
+
+    public void setBorrowedBy(int borrowedBy) {
+        arena.setBorrowedBy(record, borrowedBy);
+    }
+
+    @Override
+    void printBookName(PrintWriter pw) {
+        arena.strings.print(arena.nameRef(record), pw);
+    }
+
+    @Override
+    void printAuthorName(PrintWriter pw) {
+        arena.strings.print(arena.authorRef(record), pw);
+    }
+}
+
+// Append-only store of distinct strings in direct memory, each identified by an int ref, its
+// byte offset. An entry is [int length << 1 | latin1][chars], one byte per char when every char
+// fits in Latin-1 and two otherwise; entries never straddle the 4 MB chunks. Equal strings are
+// stored once: an open-addressing table of refs, probed by String.hashCode, finds the copy
+// already there. Entries are never removed, a name stays for as long as the pool.
+final class StringPool {
+    private static final int CHUNK_SHIFT = 22;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+
+    /** Offset the next entry is written at*/
+    private int end = 0;
+
+    /** Ref + 1 of every entry by hash, 0 marks a free slot, and the hash stored next to it*/
+    private int[] refs = new int[1024];
+    private int[] hashes = new int[1024];
+    private int count = 0;
+
+    /** Decoding buffer per thread, so printing a string allocates nothing once it is big enough*/
+    private final ThreadLocal<char[]> scratch = ThreadLocal.withInitial(() -> new char[64]);
+
+    int intern(String value) {
+        int hash = value.hashCode();
+        int mask = refs.length - 1;
+        int index = mix(hash) & mask;
+        while (refs[index] != 0) {
+            if (hashes[index] == hash && matches(refs[index] - 1, value)) {
+                return refs[index] - 1;
+            }
+            index = (index + 1) & mask;
+        }
+        int ref = append(value);
+        refs[index] = ref + 1;
+        hashes[index] = hash;
+        if (++count > (refs.length >> 1)) {
+            rehash(refs.length << 1);
+        }
+        return ref;
+    }
+
+    String get(int ref) {
+        char[] chars = decode(ref);
+        return new String(chars, 0, length(ref));
+    }
+
+    void print(int ref, PrintWriter pw) {
+        char[] chars = decode(ref);
+        pw.write(chars, 0, length(ref));
+    }
+
+    private int length(int ref) {
+        return chunks[ref >>> CHUNK_SHIFT].getInt(ref & (CHUNK_SIZE - 1)) >>> 1;
+    }
+
+    // The entry's chars at the start of this thread's scratch buffer
+    private char[] decode(int ref) {
+        ByteBuffer chunk = chunks[ref >>> CHUNK_SHIFT];
+        int at = ref & (CHUNK_SIZE - 1);
+        int header = chunk.getInt(at);
+        int length = header >>> 1;
+        char[] chars = scratch.get();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+            scratch.set(chars);
+        }
+        at += 4;
+        if ((header & 1) != 0) {
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) (chunk.get(at + i) & 0xFF);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = chunk.getChar(at + 2 * i);
+            }
+        }
+        return chars;
+    }
+
+    private boolean matches(int ref, String value) {
+        ByteBuffer chunk = chunks[ref >>> CHUNK_SHIFT];
+        int at = ref & (CHUNK_SIZE - 1);
+        int header = chunk.getInt(at);
+        int length = header >>> 1;
+        if (length != value.length()) {
+            return false;
+        }
+        at += 4;
+        boolean latin1 = (header & 1) != 0;
+        for (int i = 0; i < length; i++) {
+            char c = latin1 ? (char) (chunk.get(at + i) & 0xFF) : chunk.getChar(at + 2 * i);
+            if (c != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int append(String value) {
+        int length = value.length();
+        boolean latin1 = true;
+        for (int i = 0; i < length && latin1; i++) {
+            latin1 = value.charAt(i) < 256;
+        }
+        long size = 4 + (long) length * (latin1 ? 1 : 2);
+        if (size > CHUNK_SIZE) {
+            throw new IllegalArgumentException("Text of " + length + " chars is too long for the string pool");
+        }
+        int offset = end & (CHUNK_SIZE - 1);
+        long ref = offset + size > CHUNK_SIZE ? (long) (end - offset) + CHUNK_SIZE : end;
+        if (ref + size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("String pool is full");
+        }
+        int chunkIndex = (int) (ref >>> CHUNK_SHIFT);
+        if (chunkIndex == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkIndex + 1);
+            chunks[chunkIndex] = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.nativeOrder());
+        }
+        ByteBuffer chunk = chunks[chunkIndex];
+        int at = (int) ref & (CHUNK_SIZE - 1);
+        chunk.putInt(at, length << 1 | (latin1 ? 1 : 0));
+        at += 4;
+        for (int i = 0; i < length; i++) {
+            if (latin1) {
+                chunk.put(at + i, (byte) value.charAt(i));
+            } else {
+                chunk.putChar(at + 2 * i, value.charAt(i));
+            }
+        }
+        end = (int) (ref + size);
+        return (int) ref;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldRefs = refs;
+        int[] oldHashes = hashes;
+        refs = new int[capacity];
+        hashes = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldRefs.length; i++) {
+            if (oldRefs[i] != 0) {
+                int index = mix(oldHashes[i]) & mask;
+                while (refs[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                refs[index] = oldRefs[i];
+                hashes[index] = oldHashes[i];
+            }
+        }
+    }
+}
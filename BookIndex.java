@@ -0,0 +1,111 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+// Ordered index of the library's books by book id.
+// LibraryEngine only talks to this interface, so the backing structure can be picked at startup.
+// RbTree and ArrayRbTree are single-threaded red-black trees, SkipListIndex is lock-free,
+// BPlusTree is a single-threaded B+tree whose linked leaves suit long range scans.
+public interface BookIndex {
+    // Insert a book, an existing key keeps its node and takes the new book
+    void insertKey(int key, BookNode book);
+
+    // Delete the node for a key, absent keys are ignored
+    void deleteNode(int key);
+
+    // Take the books with lo <= id <= hi out of the index and return them in ascending id order.
+    // The red-black trees cut the range out with split and join in O(log n + k) for the k books;
+    // the other backends delete them one at a time.
+    default BookNode[] deleteRange(int lo, int hi) {
+        ArrayList<BookNode> books = new ArrayList<>();
+        range(lo, hi).forEachRemaining(books::add);
+        for (BookNode book : books) {
+            deleteNode(book.getBookId());
+        }
+        return books.toArray(new BookNode[0]);
+    }
+
+    // Number of red/black recolorings performed so far
+    int getColorFlips();
+
+    // Nodes on the longest root-to-leaf path, found by visiting every node; -1 for backends
+    // that are not trees
+    default int height() {
+        return -1;
+    }
+
+    // False for backends that are not red-black trees, their flip count is meaningless
+    default boolean tracksColorFlips() {
+        return true;
+    }
+
+    // True when the query methods are safe to call while another thread inserts or deletes
+    default boolean isLockFree() {
+        return false;
+    }
+
+    // Books with lo <= key <= hi in ascending key order
+    Iterator<BookNode> range(int lo, int hi);
+
+    // Book with the greatest key <= key, or null. floor, ceiling, lower and higher take a bounded
+    // number of steps even while another thread changes the index: a walk longer than any valid
+    // index allows throws a RuntimeException instead, so ConcurrentLibraryEngine can run them
+    // under an optimistic read.
+    BookNode floor(int key);
+
+    // Book with the least key >= key, or null
+    BookNode ceiling(int key);
+
+    // Book with the greatest key < key, or null
+    BookNode lower(int key);
+
+    // Book with the least key > key, or null
+    BookNode higher(int key);
+
+    // Number of books with an id below key. RbTree keeps subtree sizes and answers the order
+    // statistic queries in O(log n); the other backends count by walking their books.
+    default int rank(int key) {
+        return key == Integer.MIN_VALUE ? 0 : countInRange(Integer.MIN_VALUE, key - 1);
+    }
+
+    // Book with the k-th smallest id, counting from 0, or null when k is out of range
+    default BookNode select(int k) {
+        if (k < 0) {
+            return null;
+        }
+        Iterator<BookNode> books = range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        for (int i = 0; i < k && books.hasNext(); i++) {
+            books.next();
+        }
+        return books.hasNext() ? books.next() : null;
+    }
+
+    // Number of books with lo <= id <= hi
+    default int countInRange(int lo, int hi) {
+        int count = 0;
+        for (Iterator<BookNode> books = range(lo, hi); books.hasNext(); books.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    // Replace the whole index with books[0..count), sorted by ascending id without duplicates.
+    // The red-black trees build a perfectly balanced tree in O(count) and color its deepest level
+    // red whenever that level lies below the root, full or not (count 3 or 7 gets red leaves too).
+    // Color flip accounting for a bulk load: one flip for every node colored red, added to the
+    // count so far; all other nodes are built black.
+    void bulkLoad(BookNode[] books, int count);
+
+    // Visit every book in preorder with the color of its node, the walk a snapshot stores.
+    // Backends without a tree shape visit in key order and report every node black.
+    void preorder(ShapeVisitor visitor) throws IOException;
+
+    // Replace the whole index with the tree a preorder walk describes, same shape and colors,
+    // and take colorFlips as the flip count so far. Runs in O(count).
+    void restore(BookNode[] books, boolean[] red, int count, int colorFlips);
+}
+
+// Callback for BookIndex.preorder
+interface ShapeVisitor {
+    void visit(BookNode book, boolean red) throws IOException;
+}
@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Writer that encodes straight into one large reusable direct buffer and hands it to a
+// FileChannel only when it fills up or on flush, used by the batch mode in place of FileWriter.
+// ASCII text is copied byte by byte; anything else goes through the charset encoder.
+public class ChannelWriter extends Writer {
+    private static final int DEFAULT_BUFFER_SIZE = 4 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+
+    /** True when every ASCII char encodes to the same single byte in the target charset*/
+    private final boolean asciiCompatible;
+
+    public ChannelWriter(String fileName) throws IOException {
+        this(fileName, Charset.defaultCharset(), DEFAULT_BUFFER_SIZE);
+    }
+
+    public ChannelWriter(String fileName, Charset charset, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(Path.of(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(1024, bufferSize));
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (asciiCompatible && c < 0x80) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) c);
+        } else {
+            encode(CharBuffer.wrap(new char[]{(char) c}));
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        int i = asciiCompatible ? putAscii(cbuf, off, end) : off;
+        if (i < end) {
+            encode(CharBuffer.wrap(cbuf, i, end - i));
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int end = off + len;
+        int i = off;
+        if (asciiCompatible) {
+            while (i < end) {
+                char c = str.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                buffer.put((byte) c);
+                i++;
+            }
+        }
+        if (i < end) {
+            encode(CharBuffer.wrap(str, i, end));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            encoder.encode(CharBuffer.allocate(0), buffer, true);
+            encoder.flush(buffer);
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Copy the leading ASCII run, returns the index of the first char that needs the encoder
+    private int putAscii(char[] cbuf, int i, int end) throws IOException {
+        while (i < end) {
+            char c = cbuf[i];
+            if (c >= 0x80) {
+                break;
+            }
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) c);
+            i++;
+        }
+        return i;
+    }
+
+    private void encode(CharBuffer in) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(in, buffer, false);
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                break;
+            }
+        }
+    }
+
+    // Write out everything buffered so far and make the buffer reusable
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,391 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+// Operations understood in the input file
+enum Opcode {
+    PRINT_BOOK("PrintBook"),
+    PRINT_BOOKS("PrintBooks"),
+    INSERT_BOOK("InsertBook"),
+    BORROW_BOOK("BorrowBook"),
+    RETURN_BOOK("ReturnBook"),
+    DELETE_BOOK("DeleteBook"),
+    DELETE_BOOKS("DeleteBooks"),
+    FIND_CLOSEST_BOOK("FindClosestBook"),
+    FIND_BY_AUTHOR("FindByAuthor"),
+    FIND_BY_TITLE_PREFIX("FindByTitlePrefix"),
+    COLOR_FLIP_COUNT("ColorFlipCount"),
+    CANCEL_RESERVATION("CancelReservation"),
+    UPDATE_PRIORITY("UpdatePriority"),
+    COUNT_BOOKS("CountBooks"),
+    PRINT_BOOKS_PAGE("PrintBooksPage"),
+    PRINT_PATRON("PrintPatron"),
+    STATS("Stats"),
+    QUIT("Quit"),
+    INVALID("");
+
+    final char[] name;
+
+    Opcode(String name) {
+        this.name = name.toCharArray();
+    }
+}
+
+// One command's opcode and its arguments by position, what GatorLibrary.execute runs.
+// CommandParser reads them off its current line, ParallelBatch out of its window.
+interface Command {
+    Opcode opcode();
+
+    int intArg(int index);
+
+    String stringArg(int index);
+
+    boolean statusArg(int index);
+}
+
+// Single-pass tokenizer for the command file.
+// Lines are cut straight out of a reusable char buffer and arguments are kept as
+// offsets into it, so ints are parsed in place and only string arguments allocate.
+// Token boundaries follow the original split/replaceAll rules exactly: the opcode is
+// everything before the first '(', the arguments end at the next '(', they are split
+// on ',', trimmed, cut at the last run of ')' and stripped of one leading and one
+// trailing '"'.
+public class CommandParser implements Closeable, Command {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private char[] buffer;
+
+    /** Defines the filled region of the buffer as [position, limit)*/
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+
+    /** Bounds of the current line inside the buffer*/
+    private int lineStart;
+    private int lineEnd;
+
+    private Opcode opcode;
+
+    /** Cleaned bounds of each argument of the current line*/
+    private int[] argStart = new int[8];
+    private int[] argEnd = new int[8];
+    private int argCount;
+
+    public CommandParser(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CommandParser(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.buffer = new char[Math.max(16, bufferSize)];
+    }
+
+    // Advance to the next line, false once the input is exhausted
+    public boolean next() throws IOException {
+        int end = findLineEnd();
+        if (end < 0) {
+            return false;
+        }
+        lineStart = position;
+        lineEnd = end;
+        position = skipTerminator(end);
+        tokenize();
+        return true;
+    }
+
+    // Whether a whole line is already buffered, so next() can return without waiting for the reader
+    public boolean hasBufferedLine() {
+        for (int i = position; i < limit; i++) {
+            if (buffer[i] == '\n' || buffer[i] == '\r') {
+                return true;
+            }
+        }
+        return endOfInput;
+    }
+
+    public Opcode opcode() {
+        return opcode;
+    }
+
+    public int argCount() {
+        return argCount;
+    }
+
+    public int intArg(int index) {
+        checkArg(index);
+        int start = argStart[index];
+        int end = argEnd[index];
+        int length = end - start;
+        if (length == 0 || length > 10) {
+            return Integer.parseInt(new String(buffer, start, length));
+        }
+        boolean negative = false;
+        int i = start;
+        char first = buffer[i];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++i == end) {
+                return Integer.parseInt(new String(buffer, start, length));
+            }
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                // Leave the unusual cases (and their error messages) to Integer.parseInt
+                return Integer.parseInt(new String(buffer, start, length));
+            }
+            value = value * 10 + digit;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return Integer.parseInt(new String(buffer, start, length));
+        }
+        return (int) value;
+    }
+
+    public String stringArg(int index) {
+        checkArg(index);
+        return new String(buffer, argStart[index], argEnd[index] - argStart[index]);
+    }
+
+    // Same answer as GatorLibrary.parseStatus(stringArg(index)) without building the String
+    public boolean statusArg(int index) {
+        checkArg(index);
+        return argEquals(index, "yes") || argEquals(index, "true");
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void checkArg(int index) {
+        if (index >= argCount) {
+            throw new IllegalArgumentException("Malformed command, missing argument " + index + ": " + currentLine());
+        }
+    }
+
+    private boolean argEquals(int index, String expected) {
+        int start = argStart[index];
+        int length = argEnd[index] - start;
+        if (length != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(buffer[start + i]) != expected.charAt(i)
+                    && Character.toUpperCase(buffer[start + i]) != Character.toUpperCase(expected.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String currentLine() {
+        return new String(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    // Index of the terminator of the line starting at position, or limit for a final
+    // unterminated line; -1 when no input is left. Refills the buffer as needed.
+    private int findLineEnd() throws IOException {
+        int scanned = position;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                char c = buffer[i];
+                if (c == '\n' || c == '\r') {
+                    if (c == '\r' && i + 1 == limit && !endOfInput) {
+                        // Need the next char to tell \r from \r\n
+                        break;
+                    }
+                    return i;
+                }
+                scanned = i + 1;
+            }
+            if (endOfInput) {
+                return position < limit ? limit : -1;
+            }
+            int consumed = position;
+            fill();
+            scanned -= consumed;
+        }
+    }
+
+    private int skipTerminator(int end) {
+        if (end < limit && buffer[end] == '\r' && end + 1 < limit && buffer[end + 1] == '\n') {
+            return end + 2;
+        }
+        return Math.min(end + 1, limit);
+    }
+
+    // Move the unread tail to the front, grow when a single line fills the buffer, then read more
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length << 1);
+        }
+        position = 0;
+        limit = remaining;
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private void tokenize() {
+        int open = indexOf('(', lineStart, lineEnd);
+        // line.split("\\(")[1] only exists when something other than '(' follows the first '('
+        boolean hasArgs = false;
+        if (open >= 0) {
+            for (int i = open + 1; i < lineEnd; i++) {
+                if (buffer[i] != '(') {
+                    hasArgs = true;
+                    break;
+                }
+            }
+        }
+        if (!hasArgs) {
+            throw new IllegalArgumentException("Malformed command: " + currentLine());
+        }
+        opcode = matchOpcode(lineStart, open);
+
+        int argsStart = open + 1;
+        int argsEnd = indexOf('(', argsStart, lineEnd);
+        if (argsEnd < 0) {
+            argsEnd = lineEnd;
+        }
+
+        argCount = 0;
+        int tokenStart = argsStart;
+        boolean sawComma = false;
+        for (int i = argsStart; i <= argsEnd; i++) {
+            if (i == argsEnd || buffer[i] == ',') {
+                sawComma |= i < argsEnd;
+                addArg(tokenStart, i);
+                tokenStart = i + 1;
+            }
+        }
+        // String.split drops trailing empty tokens, unless there was nothing to split at all
+        if (sawComma) {
+            while (argCount > 0 && argEnd[argCount - 1] == Integer.MIN_VALUE) {
+                argCount--;
+            }
+        } else if (argEnd[0] == Integer.MIN_VALUE) {
+            argEnd[0] = argStart[0];
+        }
+        for (int i = 0; i < argCount; i++) {
+            if (argEnd[i] == Integer.MIN_VALUE) {
+                argEnd[i] = argStart[i];
+            }
+        }
+    }
+
+    // Record one raw token, cleaned the same way as
+    // token.trim().replaceAll("\\)+[^)]*$", "").replaceAll("^\"|\"$", "")
+    private void addArg(int start, int end) {
+        if (argCount == argStart.length) {
+            argStart = Arrays.copyOf(argStart, argCount << 1);
+            argEnd = Arrays.copyOf(argEnd, argCount << 1);
+        }
+        if (start == end) {
+            // Raw empty token, remembered so trailing ones can be dropped like String.split does
+            argStart[argCount] = start;
+            argEnd[argCount++] = Integer.MIN_VALUE;
+            return;
+        }
+        while (start < end && buffer[start] <= ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        int lastClose = end - 1;
+        while (lastClose >= start && buffer[lastClose] != ')') {
+            lastClose--;
+        }
+        if (lastClose >= start) {
+            while (lastClose > start && buffer[lastClose - 1] == ')') {
+                lastClose--;
+            }
+            end = lastClose;
+        }
+        int cleanedStart = start;
+        if (start < end && buffer[start] == '"') {
+            start++;
+        }
+        if (end - 1 > cleanedStart && end > start && buffer[end - 1] == '"') {
+            end--;
+        }
+        argStart[argCount] = start;
+        argEnd[argCount++] = end;
+    }
+
+    private Opcode matchOpcode(int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return Opcode.INVALID;
+        }
+        Opcode candidate;
+        switch (buffer[start]) {
+            case 'P':
+                candidate = length == 9 ? Opcode.PRINT_BOOK : length == 10 ? Opcode.PRINT_BOOKS
+                        : length == 11 ? Opcode.PRINT_PATRON : Opcode.PRINT_BOOKS_PAGE;
+                break;
+            case 'I':
+                candidate = Opcode.INSERT_BOOK;
+                break;
+            case 'B':
+                candidate = Opcode.BORROW_BOOK;
+                break;
+            case 'R':
+                candidate = Opcode.RETURN_BOOK;
+                break;
+            case 'D':
+                candidate = length == 10 ? Opcode.DELETE_BOOK : Opcode.DELETE_BOOKS;
+                break;
+            case 'F':
+                candidate = length == 12 ? Opcode.FIND_BY_AUTHOR : length == 17 ? Opcode.FIND_BY_TITLE_PREFIX : Opcode.FIND_CLOSEST_BOOK;
+                break;
+            case 'C':
+                candidate = length == 14 ? Opcode.COLOR_FLIP_COUNT : length == 10 ? Opcode.COUNT_BOOKS : Opcode.CANCEL_RESERVATION;
+                break;
+            case 'U':
+                candidate = Opcode.UPDATE_PRIORITY;
+                break;
+            case 'Q':
+                candidate = Opcode.QUIT;
+                break;
+            case 'S':
+                candidate = Opcode.STATS;
+                break;
+            default:
+                return Opcode.INVALID;
+        }
+        char[] name = candidate.name;
+        if (name.length != length) {
+            return Opcode.INVALID;
+        }
+        for (int i = 1; i < length; i++) {
+            if (buffer[start + i] != name[i]) {
+                return Opcode.INVALID;
+            }
+        }
+        return candidate;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+// Thread-safe LibraryEngine for many request threads sharing one catalogue.
+// Locks are always taken in the same order, structure first, then stripe:
+// - structure, a StampedLock over the book map and the ordered index. InsertBook and
+//   DeleteBook hold it for writing. Single-book operations hold it for reading, so they
+//   run in parallel with each other and never see the map being rehashed.
+//   FindClosestBook and ColorFlipCount first try an optimistic read and fall back to a
+//   read lock only if a writer got in the way. PrintBooks, PrintBooksPage and CountBooks
+//   take the read lock: their walks can be as long as the catalogue, and through links
+//   torn by a concurrent rotation such a walk might never end.
+// - stripes, one monitor per bookId stripe, guarding a book's status, borrower and
+//   reservation heap. Borrows and returns on different books rarely share a stripe,
+//   so throughput scales with the number of cores.
+// With a lock-free index (SkipListIndex) PrintBook, PrintBooks, FindClosestBook and
+// ColorFlipCount read the index directly and never touch the structure lock at all.
+public class ConcurrentLibraryEngine extends LibraryEngine {
+    private final StampedLock structure = new StampedLock();
+    private final Object[] stripes;
+    private final int stripeMask;
+
+    /** True when readers can query the index without holding the structure lock*/
+    private final boolean lockFreeIndex;
+
+    /** Reused per thread to collect a PrintBooks range before printing it*/
+    private final ThreadLocal<ArrayList<BookNode>> rangeBuffer = ThreadLocal.withInitial(ArrayList::new);
+
+    public ConcurrentLibraryEngine(BookIndex tree) {
+        this(tree, null);
+    }
+
+    public ConcurrentLibraryEngine(BookIndex tree, BookArena arena) {
+        this(tree, arena, 64 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public ConcurrentLibraryEngine(BookIndex tree, BookArena arena, int stripeCount) {
+        super(tree, arena);
+        int count = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new Object[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Object();
+        }
+        stripeMask = count - 1;
+        lockFreeIndex = tree.isLockFree();
+    }
+
+    @Override
+    public void printBook(int bookId, PrintWriter pw) {
+        if (lockFreeIndex) {
+            if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOK_START, bookId);
+            BookNode book = tree.floor(bookId);
+            if (book != null && book.getBookId() == bookId) {
+                printBook(book, pw);
+            }
+            if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOK_END, bookId);
+            return;
+        }
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(bookId)) {
+                super.printBook(bookId, pw);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void borrowBook(int patronId, int bookId, int patronPriority, PrintWriter pw) {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(bookId)) {
+                super.borrowBook(patronId, bookId, patronPriority, pw);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void returnBook(int patronId, int bookId, PrintWriter pw) {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(bookId)) {
+                super.returnBook(patronId, bookId, pw);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void cancelReservation(int patronId, int bookId, PrintWriter pw) {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(bookId)) {
+                super.cancelReservation(patronId, bookId, pw);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void updatePriority(int patronId, int bookId, int newPriority, PrintWriter pw) {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(bookId)) {
+                super.updatePriority(patronId, bookId, newPriority, pw);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void insertBook(int bookId, String bookName, String authorName, boolean availabilityStatus) {
+        long stamp = structure.writeLock();
+        try {
+            super.insertBook(bookId, bookName, authorName, availabilityStatus);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void stageBook(int bookId, String bookName, String authorName, boolean availabilityStatus) {
+        long stamp = structure.writeLock();
+        try {
+            super.stageBook(bookId, bookName, authorName, availabilityStatus);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void insertStagedBooks() {
+        long stamp = structure.writeLock();
+        try {
+            super.insertStagedBooks();
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void deleteBook(int bookId, PrintWriter pw) {
+        long stamp = structure.writeLock();
+        try {
+            // A PrintBooks that collected this book before the delete may still be printing it
+            synchronized (stripe(bookId)) {
+                super.deleteBook(bookId, pw);
+            }
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void deleteBooks(int bookId1, int bookId2, PrintWriter pw) {
+        long stamp = structure.writeLock();
+        try {
+            super.deleteBooks(bookId1, bookId2, pw);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void printBooks(int bookId1, int bookId2, PrintWriter pw) {
+        if (lockFreeIndex) {
+            if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_START, bookId1, bookId2);
+            Iterator<BookNode> range = tree.range(bookId1, bookId2);
+            while (range.hasNext()) {
+                printBook(range.next(), pw);
+            }
+            if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_END, bookId1, bookId2);
+            return;
+        }
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_START, bookId1, bookId2);
+        printPage(bookId1, bookId2, 0, Integer.MAX_VALUE, pw);
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_END, bookId1, bookId2);
+    }
+
+    @Override
+    public void printBooksPage(int bookId1, int bookId2, int offset, int limit, PrintWriter pw) {
+        if (lockFreeIndex) {
+            super.printBooksPage(bookId1, bookId2, offset, limit, pw);
+            return;
+        }
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_PAGE_START, bookId1, bookId2);
+        printPage(bookId1, bookId2, offset, limit, pw);
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_PAGE_END, bookId1, bookId2);
+    }
+
+    // Collect the page under the read lock, then print it once the lock is released
+    private void printPage(int bookId1, int bookId2, int offset, int limit, PrintWriter pw) {
+        ArrayList<BookNode> books = rangeBuffer.get();
+        long stamp = structure.readLock();
+        try {
+            Iterator<BookNode> range = page(bookId1, bookId2, offset);
+            for (int i = 0; i < limit && range.hasNext(); i++) {
+                books.add(range.next());
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+        try {
+            for (BookNode book : books) {
+                printBook(book, pw);
+            }
+        } finally {
+            books.clear();
+        }
+    }
+
+    @Override
+    public void findClosestBook(int targetId, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.FIND_CLOSEST_BOOK_START, targetId);
+        boolean empty = false;
+        BookNode below = null;
+        BookNode above = null;
+        boolean valid = false;
+        if (lockFreeIndex) {
+            below = tree.lower(targetId);
+            above = tree.higher(targetId);
+            // Only an index without any book has no neighbour and no book at the target either
+            empty = below == null && above == null && tree.ceiling(targetId) == null;
+            valid = true;
+        }
+        long stamp = valid ? 0 : structure.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                empty = bookMap.isEmpty();
+                below = tree.lower(targetId);
+                above = tree.higher(targetId);
+                valid = structure.validate(stamp);
+            } catch (RuntimeException e) {
+                // Walked into a half-finished rotation or resize, or a walk that would not end
+                // (see BookIndex.floor); retry under the read lock
+            }
+        }
+        if (!valid) {
+            stamp = structure.readLock();
+            try {
+                empty = bookMap.isEmpty();
+                below = tree.lower(targetId);
+                above = tree.higher(targetId);
+            } finally {
+                structure.unlockRead(stamp);
+            }
+        }
+        if (empty) {
+            pw.println("Library is empty\n");
+            return;
+        }
+        printClosestBooks(targetId, below, above, pw);
+        if (Trace.ON) Trace.event(TraceEvent.FIND_CLOSEST_BOOK_END, targetId);
+    }
+
+    @Override
+    public int colorFlipCount() {
+        if (lockFreeIndex) {
+            return super.colorFlipCount();
+        }
+        long stamp = structure.tryOptimisticRead();
+        int flips = super.colorFlipCount();
+        if (!structure.validate(stamp)) {
+            stamp = structure.readLock();
+            try {
+                flips = super.colorFlipCount();
+            } finally {
+                structure.unlockRead(stamp);
+            }
+        }
+        return flips;
+    }
+
+    // Under the read lock like PrintBooks: only RbTree counts in O(log n), the other backends walk the range
+    @Override
+    int countInRange(int bookId1, int bookId2) {
+        if (lockFreeIndex) {
+            return super.countInRange(bookId1, bookId2);
+        }
+        long stamp = structure.readLock();
+        try {
+            return super.countInRange(bookId1, bookId2);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    // The search indexes change only under the write lock, so even with a lock-free ordered index
+    // they are read under the read lock; the books found are printed after it is released
+    @Override
+    List<BookNode> booksByAuthor(String authorName, int limit) {
+        long stamp = structure.readLock();
+        try {
+            return super.booksByAuthor(authorName, limit);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    List<BookNode> booksByTitlePrefix(String prefix, int limit) {
+        long stamp = structure.readLock();
+        try {
+            return super.booksByTitlePrefix(prefix, limit);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    // The height walk visits every node, so it cannot run optimistically
+    @Override
+    public void printStats(PrintWriter pw) {
+        if (lockFreeIndex) {
+            super.printStats(pw);
+            return;
+        }
+        long stamp = structure.readLock();
+        try {
+            super.printStats(pw);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    // Borrows and returns hold the read lock, so the write lock shuts out every change
+    @Override
+    long checkpoint(Path dir) throws IOException {
+        long stamp = structure.writeLock();
+        try {
+            return super.checkpoint(dir);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    // Off-heap records are never reused here: a PrintBooks or a lock-free reader may still be
+    // holding a deleted book and would read whatever the next insert wrote into its record
+    @Override
+    void release(BookNode book) {
+    }
+
+    // Every book is printed under its stripe so its status, borrower and waitlist are read together
+    @Override
+    void printBook(BookNode book, PrintWriter pw) {
+        synchronized (stripe(book.getBookId())) {
+            super.printBook(book, pw);
+        }
+    }
+
+    // DeleteBooks reaches here without the stripe of every book in its range
+    @Override
+    void removeDeleted(BookNode book, PrintWriter pw) {
+        synchronized (stripe(book.getBookId())) {
+            super.removeDeleted(book, pw);
+        }
+    }
+
+    @Override
+    void printClosestBook(BookNode book, PrintWriter pw) {
+        synchronized (stripe(book.getBookId())) {
+            super.printClosestBook(book, pw);
+        }
+    }
+
+    private Object stripe(int bookId) {
+        int h = bookId * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & stripeMask];
+    }
+}
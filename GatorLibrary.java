@@ -1,259 +1,234 @@
 import java.io.*;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.nio.file.Path;
 
 public class GatorLibrary {
-    private static Map<Integer, BookNode> bookMap = new HashMap<>();
-    private static RbTree tree = new RbTree();
 
     public static void main(String[] args) {
 
+        // Server mode (-Dgator.server=<port>) keeps the library in memory and takes the same
+        // commands over TCP instead of from a file, see LibraryServer
+        String serverPort = System.getProperty("gator.server");
+        if (serverPort != null) {
+            try {
+                LibraryServer.run(Integer.parseInt(serverPort), System.getProperty("gator.data"));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
         String inputFileName = args[0];
         String outputFileName = inputFileName.replaceFirst("[.][^.]+$", "") + "_output_file.txt";
 
-        try (BufferedReader br = new BufferedReader(new FileReader(inputFileName));
+        // Batch mode (-Dgator.batch=true) memory-maps the input and writes through one big direct buffer
+        boolean batch = Boolean.getBoolean("gator.batch");
+        LibraryEngine library = LibraryEngine.create();
 
-             PrintWriter pw = new PrintWriter(new FileWriter(outputFileName))) {
+        // With -Dgator.data=<dir> the catalogue outlives the run: it is recovered from the directory
+        // first, and every change this run makes is logged there
+        String dataDir = System.getProperty("gator.data");
 
-            String line;
-            while ((line = br.readLine()) != null) {
+        // Import mode (-Dgator.import=true) collects each run of consecutive InsertBook lines and
+        // loads it in one go, see LibraryEngine.insertStagedBooks
+        boolean bulkImport = Boolean.getBoolean("gator.import");
 
-                String[] lineSplit = line.split("\\(");
-                String[] tokens = lineSplit[1].split(",");
-                for (int i=0; i< tokens.length; i++) {
-                    String trimmedPart = tokens[i].trim().replaceAll("\\)+[^)]*$", "").replaceAll("^\"|\"$", "");
-                    tokens[i] = trimmedPart;
-                }
+        // Parallel mode (-Dgator.parallel=true) runs commands on different books side by side, see
+        // ParallelBatch. The write-ahead log and the trace buffer take one writer at a time, so with
+        // a data directory or tracing the commands stay on this thread. With a borrow limit a borrow
+        // depends on the patron's other books, which no longer commute, so it stays here as well.
+        boolean parallel = Boolean.getBoolean("gator.parallel") && dataDir == null && !Trace.ON
+                && LibraryEngine.BORROW_LIMIT == Integer.MAX_VALUE;
 
-                switch (lineSplit[0]) {
-                    case "PrintBook":
-                        printBook(Integer.parseInt(tokens[0]), pw);
-                        break;
-                    case "PrintBooks":
-                        printBooks(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1]), pw);
-                        break;
-                    case "InsertBook":
-                        insertBook(Integer.parseInt(tokens[0]), tokens[1], tokens[2], parseStatus(tokens[3]));
-                        break;
-                    case "BorrowBook":
-                        borrowBook(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1]),
-                                Integer.parseInt(tokens[2]), pw);
-                        break;
-                    case "ReturnBook":
-                         returnBook(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1]), pw);
-                        break;
-                    case "DeleteBook":
-                        deleteBook(Integer.parseInt(tokens[0]), pw);
-                        break;
-                    case "FindClosestBook":
-                        findClosestBook(Integer.parseInt(tokens[0]), pw);
-                        break;
-                    case "ColorFlipCount":
-                        int colorFlipCount = colorFlipCount();
-                        pw.println("Color Flip Count: " + colorFlipCount + "\n");
-                        break;
-                    case "Quit":
-                        pw.print("Program Terminated!!");
-                        return;
-                    default:
-                        System.out.println("Invalid operation: " + tokens[0]);
+        try (Persistence store = dataDir != null ? Persistence.open(Path.of(dataDir), library) : null;
+
+             CommandParser parser = new CommandParser(batch ? new MappedFileReader(inputFileName) : new FileReader(inputFileName));
+
+             PrintWriter pw = new PrintWriter(batch ? new ChannelWriter(outputFileName) : new FileWriter(outputFileName))) {
+
+            PrintWriter console = new PrintWriter(System.out, true);
+            if (parallel) {
+                new ParallelBatch(library, bulkImport).run(parser, pw, console);
+                return;
+            }
+            while (parser.next()) {
+                if (execute(parser, library, bulkImport, pw, console)) {
+                    return;
+                }
+                if (store != null) {
+                    store.maybeCheckpoint();
                 }
             }
+            // The file ended without Quit, a run still being collected belongs to the catalogue too
+            library.insertStagedBooks();
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            // Console tracing already printed everything, event tracing prints its ring buffer once
+            if (Trace.ON && !Trace.CONSOLE_ON) {
+                Trace.dump(System.out);
+            }
+            // With -Dgator.metrics=true the run ends with the same report Stats writes
+            if (Metrics.ON) {
+                PrintWriter out = new PrintWriter(System.out);
+                library.printStats(out);
+                out.flush();
+            }
         }
     }
 
-    private static void printBook(int bookId, PrintWriter pw) {
-        System.out.println("print book start: "+ bookId);
-        if (bookMap.containsKey(bookId)) {
-            BookNode book = bookMap.get(bookId);
-            pw.println("BookID: " + book.getBookId());
-            pw.println("BookName: " + book.getBookName());
-            pw.println("AuthorName: " + book.getAuthorName());
-            pw.println("AvailabilityStatus: " + (book.getAvailabilityStatus() ? "Yes" : "No"));
-            pw.println("BorrowedBy: " + (book.getBorrowedBy() > 0? book.getBorrowedBy(): "None"));
-            pw.println("Reservations: " + getReservationHeapAsString(book) + "\n");
+    // Run one command, true for Quit. The only dispatcher: the file loop and LibraryServer pass
+    // the parser, ParallelBatch a command out of its window. An unknown command is reported to
+    // errors: the console for a file, the client's own connection for the server.
+    static boolean execute(Command command, LibraryEngine library, boolean bulkImport, PrintWriter pw, PrintWriter errors) {
+        long start = Metrics.ON ? System.nanoTime() : 0;
+        if (bulkImport && command.opcode() != Opcode.INSERT_BOOK && library.hasStagedBooks()) {
+            library.insertStagedBooks();
         }
-        System.out.println("print book end");
-    }
-
-    private static void printBooks(int bookId1, int bookId2, PrintWriter pw) {
-        for (int i = bookId1; i <= bookId2; i++) {
-            printBook(i, pw);
+        switch (command.opcode()) {
+            case PRINT_BOOK:
+                library.printBook(command.intArg(0), pw);
+                break;
+            case PRINT_BOOKS:
+                library.printBooks(command.intArg(0), command.intArg(1), pw);
+                break;
+            case INSERT_BOOK:
+                if (bulkImport) {
+                    library.stageBook(command.intArg(0), command.stringArg(1), command.stringArg(2), command.statusArg(3));
+                } else {
+                    library.insertBook(command.intArg(0), command.stringArg(1), command.stringArg(2), command.statusArg(3));
+                }
+                break;
+            case BORROW_BOOK:
+                library.borrowBook(command.intArg(0), command.intArg(1), command.intArg(2), pw);
+                break;
+            case RETURN_BOOK:
+                library.returnBook(command.intArg(0), command.intArg(1), pw);
+                break;
+            case DELETE_BOOK:
+                library.deleteBook(command.intArg(0), pw);
+                break;
+            case DELETE_BOOKS:
+                library.deleteBooks(command.intArg(0), command.intArg(1), pw);
+                break;
+            case CANCEL_RESERVATION:
+                library.cancelReservation(command.intArg(0), command.intArg(1), pw);
+                break;
+            case UPDATE_PRIORITY:
+                library.updatePriority(command.intArg(0), command.intArg(1), command.intArg(2), pw);
+                break;
+            case FIND_CLOSEST_BOOK:
+                library.findClosestBook(command.intArg(0), pw);
+                break;
+            case COUNT_BOOKS:
+                library.countBooks(command.intArg(0), command.intArg(1), pw);
+                break;
+            case PRINT_PATRON:
+                library.printPatron(command.intArg(0), pw);
+                break;
+            case FIND_BY_AUTHOR:
+                library.findByAuthor(command.stringArg(0), command.intArg(1), pw);
+                break;
+            case FIND_BY_TITLE_PREFIX:
+                library.findByTitlePrefix(command.stringArg(0), command.intArg(1), pw);
+                break;
+            case PRINT_BOOKS_PAGE:
+                library.printBooksPage(command.intArg(0), command.intArg(1), command.intArg(2), command.intArg(3), pw);
+                break;
+            case COLOR_FLIP_COUNT:
+                if (library.tracksColorFlips()) {
+                    int colorFlipCount = library.colorFlipCount();
+                    pw.println("Color Flip Count: " + colorFlipCount + "\n");
+                } else {
+                    pw.println("Color Flip Count: n/a\n");
+                }
+                break;
+            case STATS:
+                library.printStats(pw);
+                break;
+            case QUIT:
+                pw.print("Program Terminated!!");
+                return true;
+            default:
+                errors.println("Invalid operation: " + command.stringArg(0));
         }
+        if (Metrics.ON) Metrics.command(command.opcode(), System.nanoTime() - start);
+        return false;
     }
 
-    private static void insertBook(int bookId, String bookName, String authorName, boolean availabilityStatus) {
-        System.out.println("insert book start: " + bookId);
-        BookNode newBook = new BookNode(bookId, bookName, authorName, availabilityStatus, new ReservationNode());
-        bookMap.put(bookId, newBook);
-        tree.insertKey(bookId);
-        System.out.println("insert book end");
+    public static boolean parseStatus(String status){
+        return status.equalsIgnoreCase("yes") || status.equalsIgnoreCase("true");
     }
+}
 
-    private static void borrowBook(int patronId, int bookId, int patronPriority, PrintWriter pw) {
-        System.out.println("borrow book start");
-        if (bookMap.containsKey(bookId)) {
-            BookNode book = bookMap.get(bookId);
-
-            if (book.getAvailabilityStatus()) {
-                // Book is available, update book status and borrower
-                book.setAvailabilityStatus(false);
-                book.setBorrowedBy(patronId);
-                pw.println("Book " + bookId + " Borrowed by Patron " + patronId + "\n");
-            } else if (Arrays.stream(book.getReservationNode().getReservations()).anyMatch(Objects::isNull)){
-                // Book is not available, create a reservation node in the heap
-                book.getReservationNode().add(new Reservation(patronId, patronPriority, System.currentTimeMillis()));
-                pw.println("Book " + bookId + " Reserved by Patron " + patronId + "\n");
-            }
-        }
-        System.out.println("borrow book end");
-    }
+// A book as the engine sees it. The id and the wait list always live on the heap; where the
+// name, author, status and borrower are kept is up to the subclass: HeapBookNode keeps them
+// in fields, ArenaBookNode in a record of a BookArena. A book nobody waits for points at the
+// shared ReservationNode.EMPTY and only gets a heap of its own with the first reservation.
+abstract class BookNode {
+    private final int bookId;
+    private ReservationNode reservationNode;
 
-    private static void returnBook(int patronId, int bookId, PrintWriter pw) {
-        System.out.println("return book start");
-        if (bookMap.containsKey(bookId)) {
-            BookNode book = bookMap.get(bookId);
-
-            // Update book status and borrower
-            book.setAvailabilityStatus(true);
-            book.setBorrowedBy(-1); // Assuming -1 represents no borrower
-            pw.println("Book " + bookId + " Returned by Patron " + patronId + "\n");
-
-            // If there are reservations, assign the book to the patron with the highest priority
-            if (book.getReservationNode().getSize() > 0) {
-                Reservation highestPriorityReservation = book.getReservationNode().poll();
-                book.setAvailabilityStatus(false);
-                book.setBorrowedBy(highestPriorityReservation.getPatronId());
-                pw.println("Book " + bookId + " Allotted to Patron " + highestPriorityReservation.getPatronId() + "\n");
-            }
-        }
-        System.out.println("return book end");
+    BookNode(int bookId, ReservationNode reservationNode) {
+        this.bookId = bookId;
+        this.reservationNode = reservationNode;
     }
 
-    private static void deleteBook(int bookId, PrintWriter pw) {
-        System.out.println("delete book start: " + bookId);
-        if (bookMap.containsKey(bookId)) {
-            BookNode deletedBook = bookMap.remove(bookId);
-            // Notify patrons in the reservation list that the book is no longer available to borrow
-            ReservationNode reservationHeap = deletedBook.getReservationNode();
-            int nonNullValues = 0;
-            for(Reservation reservation: reservationHeap.getReservations()){
-                if (reservation != null)
-                    nonNullValues++;
-            }
-            int[] patronIds = new int[nonNullValues];
-            nonNullValues = 0;
-            while (reservationHeap.getSize() > 0) {
-                var patronId = reservationHeap.poll().getPatronId();
-                if (patronId != deletedBook.getBorrowedBy()){
-                    patronIds[nonNullValues++] = patronId;
-                }
-            }
-
-            if (patronIds.length > 0){
-                StringBuilder sb = new StringBuilder();
-                for (int patronId : patronIds) {
-                    sb.append(patronId).append(",");
-                }
-                var patronIdsString = sb.substring(0, sb.length() - 1);
-
-                pw.println("Book " + bookId + " is no longer available. Reservations made by Patrons " + patronIdsString + " have been cancelled." + "\n");
-            } else {
-                pw.println("Book " + bookId + " is no longer available.\n");
-            }
-        } else {
-            pw.println("Book " + bookId + " not found in the Library" + "\n");
-            }
-        tree.deleteNode(bookId);
-        System.out.println("delete book end");
+    public int getBookId() {
+        return bookId;
     }
 
-    private static void findClosestBook(int targetId, PrintWriter pw) {
-        System.out.println("find closest book start");
-        if (bookMap.isEmpty()) {
-            pw.println("Library is empty\n");
-            return;
-        }
+    public abstract String getBookName();
 
-        int minDistance = Integer.MAX_VALUE;
-        Map<Integer, Integer> distanceMap = new HashMap<>();
+    public abstract String getAuthorName();
 
-        for (BookNode book : bookMap.values()) {
-            if (book.getBookId() != targetId){
-                int distance = Math.abs(book.getBookId() - targetId);
-                distanceMap.put(book.getBookId(), distance);
-                if (distance < minDistance) {
-                    minDistance = distance;
-//                    closestBook = book;
-                }
-            }
-        }
+    public abstract boolean getAvailabilityStatus();
 
-        for (int bookId: distanceMap.keySet().stream().sorted().toList()){
-            if (distanceMap.get(bookId) == minDistance){
-                var book = bookMap.get(bookId);
-                if (book != null) {
-                    pw.println("BookID: " + book.getBookId());
-                    pw.println("BookName: " + book.getBookName());
-                    pw.println("AuthorName: " + book.getAuthorName());
-                    pw.println("AvailabilityStatus: " + book.getAvailabilityStatus());
-                    pw.println("BorrowedBy: " + book.getBorrowedBy());
-                    pw.println("ReservationHeap: " + getReservationHeapAsString(book) + "\n");
-                }
-            }
-        }
+    public abstract int getBorrowedBy();
 
-        System.out.println("find closest book end");
+    public ReservationNode getReservationNode() {
+        return reservationNode;
     }
 
-    private static int colorFlipCount() {
-        return tree.getColorFlips();
+    // The wait list to add a reservation to, a heap of the book's own in place of the shared empty one
+    ReservationNode reservationsForAdd() {
+        if (reservationNode == ReservationNode.EMPTY) {
+            reservationNode = new ReservationNode();
+        }
+        return reservationNode;
     }
 
-    private static String getReservationHeapAsString(BookNode bookNode) {
-        var reservationNode = bookNode.getReservationNode();
-        if (reservationNode.getSize() < 1) {
-            return "[]";
+    // Hand a drained heap back, the book shares the empty wait list again
+    void trimReservations() {
+        if (reservationNode.getSize() == 0) {
+            reservationNode = ReservationNode.EMPTY;
         }
+    }
 
-        StringBuilder sb = new StringBuilder();
-        var reservations = Arrays.stream(reservationNode.getReservations())
-                .filter(reservation -> reservation!=null && reservation.getPatronId()!=bookNode.getBorrowedBy())
-                .sorted(Comparator.comparing(Reservation::getPatronId))
-                .collect(Collectors.toCollection(LinkedHashSet::new));
+    public abstract void setAvailabilityStatus(boolean availabilityStatus);
 
-        for (Reservation reservation: reservations) {
-            sb.append(reservation.getPatronId()).append(",");
-        }
+    public abstract void setBorrowedBy(int borrowedBy);
 
-        return "["+sb.substring(0, sb.length() - 1)+"]"; // Remove the trailing comma
+    // PrintBook writes the name and author through these, so a subclass can avoid building the String
+    void printBookName(PrintWriter pw) {
+        pw.print(getBookName());
     }
 
-    public static boolean parseStatus(String status){
-        return status.equalsIgnoreCase("yes") || status.equalsIgnoreCase("true");
+    void printAuthorName(PrintWriter pw) {
+        pw.print(getAuthorName());
     }
 }
 
-class BookNode {
-    private int bookId;
+class HeapBookNode extends BookNode {
     private String bookName;
     private String authorName;
     private boolean availabilityStatus;
     private int borrowedBy;
-    private ReservationNode reservationNode;
 
-    public BookNode(int bookId, String bookName, String authorName, boolean availabilityStatus, ReservationNode reservationNode) {
-        this.bookId = bookId;
+    public HeapBookNode(int bookId, String bookName, String authorName, boolean availabilityStatus, ReservationNode reservationNode) {
+        super(bookId, reservationNode);
         this.bookName = bookName;
         this.authorName = authorName;
         this.availabilityStatus = availabilityStatus;
-        this.reservationNode = reservationNode;
-    }
-
-    public int getBookId() {
-        return bookId;
     }
 
     public String getBookName() {
@@ -272,10 +247,6 @@ class BookNode {
         return borrowedBy;
     }
 
-    public ReservationNode getReservationNode() {
-        return reservationNode;
-    }
-
     public void setAvailabilityStatus(boolean availabilityStatus) {
         this.availabilityStatus = availabilityStatus;
     }
@@ -284,4 +255,4 @@ class BookNode {
         this.borrowedBy = borrowedBy;
     }
 
-}
\ No newline at end of file
+}
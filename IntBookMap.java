@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+// Open-addressing hash map from a primitive int book id to its BookNode.
+// Keys and values live in two parallel arrays, so lookups do not box the id and
+// there is no per-entry object. Collisions use linear probing; removals shift the
+// following run of the cluster back instead of leaving tombstones behind.
+public class IntBookMap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** Fraction of slots that may be occupied before the table doubles*/
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Defines the book ids, a slot is in use exactly when values holds a book for it*/
+    private int[] keys;
+
+    private BookNode[] values;
+
+    /** Indicates the number of books in the map*/
+    private int size = 0;
+
+    private int mask;
+    private int resizeThreshold;
+
+    public IntBookMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntBookMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, (int) (expectedSize / LOAD_FACTOR) + 1) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Single probe sequence, returns null when the id is absent
+    public BookNode get(int key) {
+        int index = slot(key);
+        BookNode value;
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    // Returns the book previously stored under key, or null
+    public BookNode put(int key, BookNode value) {
+        if (value == null) throw new IllegalArgumentException("null books are not stored");
+        int index = slot(key);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                BookNode previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    // Returns the removed book, or null if the id was absent
+    public BookNode remove(int key) {
+        int index = slot(key);
+        BookNode value;
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                shiftBack(index);
+                size--;
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    // Backward-shift deletion: move later entries of the cluster into the hole
+    // whenever their home slot does not lie strictly between the hole and them
+    private void shiftBack(int hole) {
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            if (values[index] == null) {
+                break;
+            }
+            int home = slot(keys[index]);
+            boolean movable = hole <= index ? (home <= hole || home > index) : (home <= hole && home > index);
+            if (movable) {
+                keys[hole] = keys[index];
+                values[hole] = values[index];
+                hole = index;
+            }
+        }
+        values[hole] = null;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new BookNode[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        BookNode[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int index = slot(oldKeys[i]);
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
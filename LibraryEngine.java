@@ -0,0 +1,608 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+
+// The library's catalogue and the operations on it, one instance per library.
+// This class is meant for a single thread; ConcurrentLibraryEngine adds locking on top of it.
+public class LibraryEngine {
+    /** Staged runs shorter than this are inserted one book at a time*/
+    static final int MIN_BULK_RUN = 64;
+
+    /** Books one patron may have borrowed and reserved at a time (-Dgator.borrow.limit), unlimited by default*/
+    static final int BORROW_LIMIT = Math.max(0, Integer.getInteger("gator.borrow.limit", Integer.MAX_VALUE));
+
+    final IntBookMap bookMap = new IntBookMap();
+    final BookIndex tree;
+
+    /** Where book records are kept off the heap, null when books are plain objects*/
+    final BookArena arena;
+
+    /** Author and title indexes behind FindByAuthor and FindByTitlePrefix, null with -Dgator.search=false*/
+    final SearchIndex search = Boolean.parseBoolean(System.getProperty("gator.search", "true")) ? new SearchIndex() : null;
+
+    /** What every patron holds and waits for, behind PrintPatron and the borrow limit*/
+    final PatronIndex patrons = new PatronIndex();
+
+    /** Log every change goes to before it is applied, null unless Persistence is attached*/
+    WriteAheadLog wal;
+
+    /** InsertBooks held back by the import mode until the run ends*/
+    private BookNode[] staged = new BookNode[0];
+    private int stagedCount = 0;
+
+    public LibraryEngine(BookIndex tree) {
+        this(tree, null);
+    }
+
+    public LibraryEngine(BookIndex tree, BookArena arena) {
+        this.tree = tree;
+        this.arena = arena;
+    }
+
+    // Engine configured from the system properties: -Dgator.index picks the ordered index,
+    // -Dgator.store=offheap keeps the book records in a BookArena and -Dgator.concurrent=true
+    // returns the thread-safe engine
+    public static LibraryEngine create() {
+        return create(Boolean.getBoolean("gator.concurrent"));
+    }
+
+    public static LibraryEngine create(boolean concurrent) {
+        BookIndex index = createIndex(System.getProperty("gator.index", "rb"));
+        BookArena arena = createArena(System.getProperty("gator.store", "heap"));
+        return concurrent ? new ConcurrentLibraryEngine(index, arena) : new LibraryEngine(index, arena);
+    }
+
+    // Storage for the book records, chosen with -Dgator.store=heap|offheap
+    static BookArena createArena(String kind) {
+        switch (kind) {
+            case "heap":
+                return null;
+            case "offheap":
+                return new BookArena();
+            default:
+                throw new IllegalArgumentException("Unknown book store: " + kind);
+        }
+    }
+
+    BookNode newBook(int bookId, String bookName, String authorName, boolean availabilityStatus, ReservationNode reservationNode) {
+        if (arena == null) {
+            return new HeapBookNode(bookId, bookName, authorName, availabilityStatus, reservationNode);
+        }
+        return arena.newBook(bookId, bookName, authorName, availabilityStatus, reservationNode);
+    }
+
+    // A book that left the catalogue: its off-heap record may be handed to the next insert
+    void release(BookNode book) {
+        if (arena != null) {
+            arena.release((ArenaBookNode) book);
+        }
+    }
+
+    // Backend for the ordered book index, chosen with -Dgator.index=rb|array|skiplist|bplus
+    static BookIndex createIndex(String kind) {
+        switch (kind) {
+            case "rb":
+                return new RbTree();
+            case "array":
+                return new ArrayRbTree();
+            case "skiplist":
+                return new SkipListIndex();
+            case "bplus":
+                return new BPlusTree();
+            default:
+                throw new IllegalArgumentException("Unknown book index: " + kind);
+        }
+    }
+
+    public void printBook(int bookId, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOK_START, bookId);
+        BookNode book = bookMap.get(bookId);
+        if (book != null) {
+            printBook(book, pw);
+        }
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOK_END, bookId);
+    }
+
+    void printBook(BookNode book, PrintWriter pw) {
+        // Written piece by piece so no intermediate line Strings are built
+        pw.print("BookID: ");
+        pw.println(book.getBookId());
+        pw.print("BookName: ");
+        book.printBookName(pw);
+        pw.println();
+        pw.print("AuthorName: ");
+        book.printAuthorName(pw);
+        pw.println();
+        pw.print("AvailabilityStatus: ");
+        pw.println(book.getAvailabilityStatus() ? "Yes" : "No");
+        pw.print("BorrowedBy: ");
+        if (book.getBorrowedBy() > 0) {
+            pw.println(book.getBorrowedBy());
+        } else {
+            pw.println("None");
+        }
+        pw.print("Reservations: ");
+        pw.print(getReservationHeapAsString(book));
+        pw.println('\n');
+    }
+
+    public void printBooks(int bookId1, int bookId2, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_START, bookId1, bookId2);
+        Iterator<BookNode> books = tree.range(bookId1, bookId2);
+        while (books.hasNext()) {
+            printBook(books.next(), pw);
+        }
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_END, bookId1, bookId2);
+    }
+
+    // The books PrintBooks(bookId1, bookId2) would print, from position offset on and at most limit of them
+    public void printBooksPage(int bookId1, int bookId2, int offset, int limit, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_PAGE_START, bookId1, bookId2);
+        Iterator<BookNode> books = page(bookId1, bookId2, offset);
+        for (int i = 0; i < limit && books.hasNext(); i++) {
+            printBook(books.next(), pw);
+        }
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_BOOKS_PAGE_END, bookId1, bookId2);
+    }
+
+    // Books with bookId1 <= id <= bookId2 from position offset on: rank and select find the
+    // first one, so skipping the offset costs O(log n) on RbTree however far it reaches
+    Iterator<BookNode> page(int bookId1, int bookId2, int offset) {
+        if (offset == 0) {
+            return tree.range(bookId1, bookId2);
+        }
+        if (offset < 0 || bookId1 > bookId2) {
+            return Collections.emptyIterator();
+        }
+        long position = (long) tree.rank(bookId1) + offset;
+        BookNode first = position <= Integer.MAX_VALUE ? tree.select((int) position) : null;
+        return first != null ? tree.range(first.getBookId(), bookId2) : Collections.emptyIterator();
+    }
+
+    public void countBooks(int bookId1, int bookId2, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.COUNT_BOOKS_START, bookId1, bookId2);
+        pw.println("Book Count: " + countInRange(bookId1, bookId2) + "\n");
+        if (Trace.ON) Trace.event(TraceEvent.COUNT_BOOKS_END, bookId1, bookId2);
+    }
+
+    int countInRange(int bookId1, int bookId2) {
+        return tree.countInRange(bookId1, bookId2);
+    }
+
+    public void findByAuthor(String authorName, int limit, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.FIND_BY_AUTHOR_START, limit);
+        List<BookNode> books = booksByAuthor(authorName, limit);
+        if (books.isEmpty()) {
+            pw.println("No books by " + authorName + " in the Library\n");
+        }
+        for (BookNode book : books) {
+            printBook(book, pw);
+        }
+        if (Trace.ON) Trace.event(TraceEvent.FIND_BY_AUTHOR_END, limit);
+    }
+
+    public void findByTitlePrefix(String prefix, int limit, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.FIND_BY_TITLE_PREFIX_START, limit);
+        List<BookNode> books = booksByTitlePrefix(prefix, limit);
+        if (books.isEmpty()) {
+            pw.println("No books titled " + prefix + "... in the Library\n");
+        }
+        for (BookNode book : books) {
+            printBook(book, pw);
+        }
+        if (Trace.ON) Trace.event(TraceEvent.FIND_BY_TITLE_PREFIX_END, limit);
+    }
+
+    // The first limit books by the author in bookId order, names compared as SearchIndex.normalize leaves them
+    List<BookNode> booksByAuthor(String authorName, int limit) {
+        if (search != null) {
+            return books(search.findByAuthor(authorName, limit));
+        }
+        String author = SearchIndex.normalize(authorName);
+        return scan(book -> SearchIndex.normalize(book.getAuthorName()).equals(author), limit);
+    }
+
+    List<BookNode> booksByTitlePrefix(String prefix, int limit) {
+        if (search != null) {
+            return books(search.findByTitlePrefix(prefix, limit));
+        }
+        String title = SearchIndex.normalize(prefix);
+        return scan(book -> SearchIndex.normalize(book.getBookName()).startsWith(title), limit);
+    }
+
+    private List<BookNode> books(int[] bookIds) {
+        List<BookNode> books = new ArrayList<>(bookIds.length);
+        for (int bookId : bookIds) {
+            books.add(bookMap.get(bookId));
+        }
+        return books;
+    }
+
+    // Without the search indexes every book is looked at, in id order until limit of them matched
+    private List<BookNode> scan(Predicate<BookNode> matches, int limit) {
+        List<BookNode> books = new ArrayList<>();
+        Iterator<BookNode> all = tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        while (books.size() < limit && all.hasNext()) {
+            BookNode book = all.next();
+            if (matches.test(book)) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    // What the patron holds and waits for, both in bookId order. A book the patron holds and also
+    // queued for is only listed as borrowed, as PrintBook leaves the borrower out of its wait list.
+    public void printPatron(int patronId, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_PATRON_START, patronId);
+        int[][] books = patrons.books(patronId);
+        int[] borrowed = books[0];
+        pw.print("PatronID: ");
+        pw.println(patronId);
+        pw.print("Borrowed: ");
+        pw.println(bookList(borrowed, borrowed));
+        pw.print("Reserved: ");
+        pw.println(bookList(books[1], borrowed));
+        pw.println();
+        if (Trace.ON) Trace.event(TraceEvent.PRINT_PATRON_END, patronId);
+    }
+
+    // Book ids written like a wait list, leaving out those in skip unless the two are the same list
+    private static String bookList(int[] bookIds, int[] skip) {
+        StringBuilder sb = new StringBuilder(2 + 8 * bookIds.length).append('[');
+        for (int bookId : bookIds) {
+            if (skip == bookIds || Arrays.binarySearch(skip, bookId) < 0) {
+                sb.append(bookId).append(',');
+            }
+        }
+        if (sb.length() > 1) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.append(']').toString();
+    }
+
+    public void insertBook(int bookId, String bookName, String authorName, boolean availabilityStatus) {
+        addBook(bookId, bookName, authorName, availabilityStatus);
+    }
+
+    // insertBook itself; insertStagedBooks calls it directly since a subclass wrapping insertBook
+    // in a lock already holds that lock there
+    final void addBook(int bookId, String bookName, String authorName, boolean availabilityStatus) {
+        if (Trace.ON) Trace.event(TraceEvent.INSERT_BOOK_START, bookId);
+        if (wal != null) wal.logInsert(bookId, bookName, authorName, availabilityStatus);
+        BookNode newBook = newBook(bookId, bookName, authorName, availabilityStatus, ReservationNode.EMPTY);
+        BookNode replaced = bookMap.put(bookId, newBook);
+        tree.insertKey(bookId, newBook);
+        if (replaced != null) {
+            if (search != null) search.remove(replaced);
+            patrons.removeBook(replaced);
+            release(replaced);
+        }
+        if (search != null) search.add(newBook);
+        if (Trace.ON) Trace.event(TraceEvent.INSERT_BOOK_END, bookId);
+    }
+
+    // Import mode: hold an InsertBook back so a whole run of them can be loaded at once
+    public void stageBook(int bookId, String bookName, String authorName, boolean availabilityStatus) {
+        if (stagedCount == staged.length) {
+            staged = Arrays.copyOf(staged, Math.max(1024, 2 * staged.length));
+        }
+        staged[stagedCount++] = newBook(bookId, bookName, authorName, availabilityStatus, ReservationNode.EMPTY);
+    }
+
+    public boolean hasStagedBooks() {
+        return stagedCount > 0;
+    }
+
+    // Insert the staged run, leaving the books exactly as the InsertBooks one by one would.
+    // A run of at least MIN_BULK_RUN books that is no shorter than the catalogue is merged with
+    // the indexed books and the index rebuilt by BookIndex.bulkLoad in O(n + run), so only
+    // ColorFlipCount differs and follows bulkLoad's accounting. Shorter runs, and lock-free
+    // indexes that readers may be walking, take the usual insertBook path in input order.
+    public void insertStagedBooks() {
+        int count = stagedCount;
+        stagedCount = 0;
+        if (count < MIN_BULK_RUN || count < bookMap.size() || tree.isLockFree()) {
+            for (int i = 0; i < count; i++) {
+                BookNode book = staged[i];
+                addBook(book.getBookId(), book.getBookName(), book.getAuthorName(), book.getAvailabilityStatus());
+                release(book);
+                staged[i] = null;
+            }
+            return;
+        }
+        if (Trace.ON) Trace.event(TraceEvent.BULK_LOAD_START, count);
+        if (wal != null) {
+            for (int i = 0; i < count; i++) {
+                BookNode book = staged[i];
+                wal.logImportBook(book.getBookId(), book.getBookName(), book.getAuthorName(), book.getAvailabilityStatus());
+            }
+            wal.logImportEnd();
+        }
+
+        // Stable sort, so of several InsertBooks for one id the last one is kept, as insertBook would
+        Arrays.sort(staged, 0, count, Comparator.comparingInt(BookNode::getBookId));
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (i + 1 == count || staged[i + 1].getBookId() != staged[i].getBookId()) {
+                staged[unique++] = staged[i];
+            } else {
+                release(staged[i]);
+            }
+        }
+
+        BookNode[] merged = new BookNode[bookMap.size() + unique];
+        int total = 0;
+        Iterator<BookNode> indexed = tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        BookNode next = indexed.hasNext() ? indexed.next() : null;
+        for (int i = 0; i < unique; i++) {
+            int bookId = staged[i].getBookId();
+            while (next != null && next.getBookId() <= bookId) {
+                if (next.getBookId() < bookId) {
+                    merged[total++] = next;
+                } else {
+                    if (search != null) search.remove(next);
+                    patrons.removeBook(next);
+                    release(next);
+                }
+                next = indexed.hasNext() ? indexed.next() : null;
+            }
+            merged[total++] = staged[i];
+            bookMap.put(bookId, staged[i]);
+            if (search != null) search.add(staged[i]);
+        }
+        while (next != null) {
+            merged[total++] = next;
+            next = indexed.hasNext() ? indexed.next() : null;
+        }
+        tree.bulkLoad(merged, total);
+        Arrays.fill(staged, 0, count, null);
+        if (Trace.ON) Trace.event(TraceEvent.BULK_LOAD_END, count);
+    }
+
+    // Forget a staged run, replay does this with a run whose end never made it into the log
+    void discardStagedBooks() {
+        for (int i = 0; i < stagedCount; i++) {
+            release(staged[i]);
+        }
+        Arrays.fill(staged, 0, stagedCount, null);
+        stagedCount = 0;
+    }
+
+    public void borrowBook(int patronId, int bookId, int patronPriority, PrintWriter pw) {
+        borrowBook(patronId, bookId, patronPriority, System.currentTimeMillis(), BORROW_LIMIT, pw);
+    }
+
+    // The reservation time is passed in so replaying the log breaks priority ties the same way.
+    // The borrow limit is decided under the patron's PatronIndex segment, while two borrows by one
+    // patron on books of different stripes can log in the other order, so what is logged is the
+    // outcome: a borrow is logged once the limit let it through and a refused one not at all, and
+    // replay passes limit Integer.MAX_VALUE so it never decides again.
+    void borrowBook(int patronId, int bookId, int patronPriority, long timeOfReservation, int limit, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.BORROW_BOOK_START, bookId, patronId);
+        boolean refused = false;
+        BookNode book = bookMap.get(bookId);
+        if (book != null) {
+            if (book.getAvailabilityStatus()) {
+                if (patrons.borrow(patronId, bookId, limit)) {
+                    // Book is available, update book status and borrower
+                    book.setAvailabilityStatus(false);
+                    book.setBorrowedBy(patronId);
+                    pw.println("Book " + bookId + " Borrowed by Patron " + patronId + "\n");
+                } else {
+                    refused = true;
+                }
+            } else if (book.getReservationNode().contains(patronId)) {
+                // A patron holds one reservation per book, asking again keeps the place already taken
+                pw.println("Book " + bookId + " Reserved by Patron " + patronId + "\n");
+            } else if (!book.getReservationNode().isFull()) {
+                if (patrons.reserve(patronId, bookId, limit)) {
+                    // Book is not available, create a reservation node in the heap
+                    book.reservationsForAdd().add(new Reservation(patronId, patronPriority, timeOfReservation));
+                    pw.println("Book " + bookId + " Reserved by Patron " + patronId + "\n");
+                } else {
+                    refused = true;
+                }
+            }
+        }
+        if (refused) {
+            printBorrowLimitReached(patronId, bookId, pw);
+        } else if (wal != null) {
+            wal.logBorrow(patronId, bookId, patronPriority, timeOfReservation);
+        }
+        if (Trace.ON) Trace.event(TraceEvent.BORROW_BOOK_END, bookId, patronId);
+    }
+
+    private static void printBorrowLimitReached(int patronId, int bookId, PrintWriter pw) {
+        pw.println("Patron " + patronId + " has reached the limit of " + BORROW_LIMIT + " books, Book " + bookId + " not borrowed\n");
+    }
+
+    public void returnBook(int patronId, int bookId, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.RETURN_BOOK_START, bookId, patronId);
+        if (wal != null) wal.logReturn(patronId, bookId);
+        BookNode book = bookMap.get(bookId);
+        if (book != null) {
+            // Update book status and borrower
+            patrons.returned(book.getBorrowedBy(), bookId);
+            book.setAvailabilityStatus(true);
+            book.setBorrowedBy(-1); // Assuming -1 represents no borrower
+            pw.println("Book " + bookId + " Returned by Patron " + patronId + "\n");
+
+            // If there are reservations, assign the book to the patron with the highest priority
+            if (book.getReservationNode().getSize() > 0) {
+                Reservation highestPriorityReservation = book.getReservationNode().poll();
+                book.trimReservations();
+                book.setAvailabilityStatus(false);
+                book.setBorrowedBy(highestPriorityReservation.getPatronId());
+                patrons.allot(highestPriorityReservation.getPatronId(), bookId);
+                pw.println("Book " + bookId + " Allotted to Patron " + highestPriorityReservation.getPatronId() + "\n");
+            }
+        }
+        if (Trace.ON) Trace.event(TraceEvent.RETURN_BOOK_END, bookId, patronId);
+    }
+
+    public void deleteBook(int bookId, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.DELETE_BOOK_START, bookId);
+        if (wal != null) wal.logDelete(bookId);
+        BookNode deletedBook = bookMap.remove(bookId);
+        if (deletedBook != null) {
+            tree.deleteNode(bookId);
+            removeDeleted(deletedBook, pw);
+        } else {
+            pw.println("Book " + bookId + " not found in the Library" + "\n");
+        }
+        if (Trace.ON) Trace.event(TraceEvent.DELETE_BOOK_END, bookId);
+    }
+
+    // Delete every book with bookId1 <= id <= bookId2, printing for each what deleteBook would,
+    // in id order. The index hands the whole range over at once (split and join in RbTree).
+    public void deleteBooks(int bookId1, int bookId2, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.DELETE_BOOKS_START, bookId1, bookId2);
+        if (wal != null) wal.logDeleteRange(bookId1, bookId2);
+        BookNode[] deleted = tree.deleteRange(bookId1, bookId2);
+        if (deleted.length == 0) {
+            pw.println("No books between " + bookId1 + " and " + bookId2 + " in the Library\n");
+        }
+        for (BookNode book : deleted) {
+            bookMap.remove(book.getBookId());
+            removeDeleted(book, pw);
+        }
+        if (Trace.ON) Trace.event(TraceEvent.DELETE_BOOKS_END, bookId1, bookId2);
+    }
+
+    // A book already out of the map and the index: notify the patrons waiting for it that it is
+    // gone, then drop it from the patron and search indexes
+    void removeDeleted(BookNode deletedBook, PrintWriter pw) {
+        int bookId = deletedBook.getBookId();
+        // Notify patrons in the reservation list that the book is no longer available to borrow
+        ReservationNode reservationHeap = deletedBook.getReservationNode();
+        // Emptied in one pass, then listed in the order poll would have handed them out
+        Reservation[] waiting = reservationHeap.drain();
+        Arrays.sort(waiting, ReservationNode.PRIORITY_ORDER);
+        patrons.returned(deletedBook.getBorrowedBy(), bookId);
+        int[] patronIds = new int[waiting.length];
+        int cancelled = 0;
+        for (Reservation reservation : waiting) {
+            var patronId = reservation.getPatronId();
+            patrons.cancel(patronId, bookId);
+            if (patronId != deletedBook.getBorrowedBy()){
+                patronIds[cancelled++] = patronId;
+            }
+        }
+
+        if (cancelled > 0){
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < cancelled; i++) {
+                sb.append(patronIds[i]).append(",");
+            }
+            var patronIdsString = sb.substring(0, sb.length() - 1);
+
+            pw.println("Book " + bookId + " is no longer available. Reservations made by Patrons " + patronIdsString + " have been cancelled." + "\n");
+        } else {
+            pw.println("Book " + bookId + " is no longer available.\n");
+        }
+        if (search != null) search.remove(deletedBook);
+        release(deletedBook);
+    }
+
+    public void cancelReservation(int patronId, int bookId, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.CANCEL_RESERVATION_START, bookId, patronId);
+        if (wal != null) wal.logCancel(patronId, bookId);
+        BookNode book = bookMap.get(bookId);
+        if (book == null) {
+            pw.println("Book " + bookId + " not found in the Library" + "\n");
+        } else if (book.getReservationNode().remove(patronId) != null) {
+            book.trimReservations();
+            patrons.cancel(patronId, bookId);
+            pw.println("Reservation made by Patron " + patronId + " for Book " + bookId + " has been cancelled.\n");
+        } else {
+            pw.println("Patron " + patronId + " has no reservation for Book " + bookId + "\n");
+        }
+        if (Trace.ON) Trace.event(TraceEvent.CANCEL_RESERVATION_END, bookId, patronId);
+    }
+
+    public void updatePriority(int patronId, int bookId, int newPriority, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.UPDATE_PRIORITY_START, bookId, patronId);
+        if (wal != null) wal.logUpdatePriority(patronId, bookId, newPriority);
+        BookNode book = bookMap.get(bookId);
+        if (book == null) {
+            pw.println("Book " + bookId + " not found in the Library" + "\n");
+        } else if (book.getReservationNode().updatePriority(patronId, newPriority)) {
+            pw.println("Reservation made by Patron " + patronId + " for Book " + bookId + " now has priority " + newPriority + "\n");
+        } else {
+            pw.println("Patron " + patronId + " has no reservation for Book " + bookId + "\n");
+        }
+        if (Trace.ON) Trace.event(TraceEvent.UPDATE_PRIORITY_END, bookId, patronId);
+    }
+
+    public void findClosestBook(int targetId, PrintWriter pw) {
+        if (Trace.ON) Trace.event(TraceEvent.FIND_CLOSEST_BOOK_START, targetId);
+        if (bookMap.isEmpty()) {
+            pw.println("Library is empty\n");
+            return;
+        }
+
+        // The target itself never counts, so the candidates are its strict neighbours
+        printClosestBooks(targetId, tree.lower(targetId), tree.higher(targetId), pw);
+
+        if (Trace.ON) Trace.event(TraceEvent.FIND_CLOSEST_BOOK_END, targetId);
+    }
+
+    void printClosestBooks(int targetId, BookNode below, BookNode above, PrintWriter pw) {
+        long belowDistance = below != null ? (long) targetId - below.getBookId() : Long.MAX_VALUE;
+        long aboveDistance = above != null ? (long) above.getBookId() - targetId : Long.MAX_VALUE;
+
+        // On a tie both are printed, lower id first
+        if (below != null && belowDistance <= aboveDistance) {
+            printClosestBook(below, pw);
+        }
+        if (above != null && aboveDistance <= belowDistance) {
+            printClosestBook(above, pw);
+        }
+    }
+
+    void printClosestBook(BookNode book, PrintWriter pw) {
+        pw.print("BookID: ");
+        pw.println(book.getBookId());
+        pw.print("BookName: ");
+        book.printBookName(pw);
+        pw.println();
+        pw.print("AuthorName: ");
+        book.printAuthorName(pw);
+        pw.println();
+        pw.print("AvailabilityStatus: ");
+        pw.println(book.getAvailabilityStatus());
+        pw.print("BorrowedBy: ");
+        pw.println(book.getBorrowedBy());
+        pw.print("ReservationHeap: ");
+        pw.print(getReservationHeapAsString(book));
+        pw.println('\n');
+    }
+
+    public boolean tracksColorFlips() {
+        return tree.tracksColorFlips();
+    }
+
+    public int colorFlipCount() {
+        return tree.getColorFlips();
+    }
+
+    // Stats: the metrics recorded so far, see Metrics; the tree height takes a walk over every node
+    public void printStats(PrintWriter pw) {
+        Metrics.print(pw, Metrics.ON ? tree.height() : -1, tracksColorFlips() ? String.valueOf(colorFlipCount()) : "n/a");
+    }
+
+    // Snapshot the catalogue into dir and continue the log in a new segment, returns the lsn the
+    // snapshot covers. Nothing may change meanwhile; ConcurrentLibraryEngine holds its write lock.
+    long checkpoint(Path dir) throws IOException {
+        long lsn = wal.startSegment();
+        Snapshot.write(dir, lsn, this);
+        return lsn;
+    }
+
+    String getReservationHeapAsString(BookNode bookNode) {
+        return bookNode.getReservationNode().getPatronList(bookNode.getBorrowedBy());
+    }
+}
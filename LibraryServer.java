@@ -0,0 +1,165 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Server mode (-Dgator.server=<port>): one ConcurrentLibraryEngine stays in memory and takes the
+// command file syntax over TCP on the loopback interface, so a batch pays neither JVM start-up
+// nor warm-up nor rebuilding the index. With -Dgator.data=<dir> the catalogue is recovered and
+// logged as in file mode.
+// Every connection gets a thread of its own, a virtual thread where the runtime has them (Java 21
+// and later) and a platform thread otherwise. A client may pipeline: it can send any number of
+// lines without waiting, they are run one after another and each response is followed by a line
+// holding only END_OF_RESPONSE, in request order. Responses are flushed whenever no complete line
+// is left to read, after one WAL sync covering every change they report.
+// Quit ends the connection, the server runs until the JVM is stopped.
+final class LibraryServer implements Closeable {
+    static final String END_OF_RESPONSE = ".";
+
+    private final ServerSocket socket;
+    private final LibraryEngine library;
+    private final Persistence store;
+    private final ExecutorService connections = newThreadPerTaskExecutor();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    LibraryServer(int port, LibraryEngine library, Persistence store) throws IOException {
+        this.socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        this.library = library;
+        this.store = store;
+    }
+
+    // Serve on port until the JVM shuts down
+    static void run(int port, String dataDir) throws IOException {
+        LibraryEngine library = LibraryEngine.create(true);
+        Persistence store = dataDir != null ? Persistence.open(Path.of(dataDir), library) : null;
+        LibraryServer server = new LibraryServer(port, library, store);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Shutdown failed: " + e);
+            }
+        }));
+        System.out.println("Gator Library listening on " + server.socket.getLocalSocketAddress());
+        server.serve();
+    }
+
+    int port() {
+        return socket.getLocalPort();
+    }
+
+    void serve() throws IOException {
+        while (!closed) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                throw e;
+            }
+            clients.add(client);
+            connections.execute(() -> handle(client));
+        }
+    }
+
+    private void handle(Socket client) {
+        try (client;
+             CommandParser parser = new CommandParser(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter pw = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), 1 << 16))) {
+            client.setTcpNoDelay(true);
+            while (true) {
+                if (!parser.hasBufferedLine()) {
+                    flush(pw);
+                }
+                boolean quit;
+                try {
+                    if (!parser.next()) {
+                        break;
+                    }
+                    quit = GatorLibrary.execute(parser, library, false, pw, pw);
+                } catch (IllegalArgumentException e) {
+                    // A malformed line only costs its own response, the connection goes on
+                    pw.println(e.getMessage());
+                    quit = false;
+                }
+                if (quit) {
+                    pw.println();
+                }
+                pw.println(END_OF_RESPONSE);
+                if (quit) {
+                    flush(pw);
+                    break;
+                }
+                if (store != null) {
+                    synchronized (store) {
+                        store.maybeCheckpoint();
+                    }
+                }
+            }
+            flush(pw);
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Connection " + client.getRemoteSocketAddress() + " failed: " + e);
+            }
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    // Nothing is acknowledged before the log holds it
+    private void flush(PrintWriter pw) throws IOException {
+        if (store != null) {
+            store.sync();
+        }
+        pw.flush();
+    }
+
+    // Stop accepting, drop the open connections and sync the log
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        socket.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+        connections.shutdown();
+        try {
+            connections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (store != null) {
+            synchronized (store) {
+                store.close();
+            }
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up at run time, the library still builds on Java 17
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
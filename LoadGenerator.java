@@ -0,0 +1,143 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load generator for the server mode, measuring throughput and latency on loopback:
+//     java LoadGenerator <port> [connections=8] [requests=100000] [pipeline=16] [books=10000]
+// The catalogue is first filled with books 1..books over one connection. Then every connection
+// sends its share of requests, a random mix of PrintBook, BorrowBook and ReturnBook, in batches
+// of pipeline commands written at once, and reads the batch's responses before sending the next.
+// A command's latency runs from the write of its batch to the arrival of its END_OF_RESPONSE line.
+public final class LoadGenerator {
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.parseInt(args[0]);
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int pipeline = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int books = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+
+        try (Connection setup = new Connection(port)) {
+            for (int from = 1; from <= books; from += pipeline) {
+                int to = Math.min(books, from + pipeline - 1);
+                for (int id = from; id <= to; id++) {
+                    setup.out.write("InsertBook(" + id + ", \"Book" + id + "\", \"Author" + id % 100 + "\", \"Yes\")\n");
+                }
+                setup.out.flush();
+                for (int id = from; id <= to; id++) {
+                    setup.awaitResponse();
+                }
+            }
+        }
+
+        long[] latencies = new long[requests];
+        AtomicLong errors = new AtomicLong();
+        Thread[] threads = new Thread[connections];
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            int from = (int) ((long) requests * c / connections);
+            int to = (int) ((long) requests * (c + 1) / connections);
+            long seed = c;
+            threads[c] = new Thread(() -> {
+                try {
+                    drive(port, from, to, pipeline, books, new SplittableRandom(seed), latencies);
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                    System.err.println("Connection failed: " + e);
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.printf("%d requests over %d connections, pipeline %d: %.0f requests/s%n",
+                requests, connections, pipeline, requests * 1e9 / elapsed);
+        System.out.printf("Latency (us): p50 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                percentile(latencies, 50) / 1e3, percentile(latencies, 99) / 1e3,
+                percentile(latencies, 99.9) / 1e3, latencies[latencies.length - 1] / 1e3);
+        if (errors.get() > 0) {
+            System.out.println(errors.get() + " connections failed");
+        }
+    }
+
+    // Send requests [from, to) in batches of pipeline, recording each one's latency
+    private static void drive(int port, int from, int to, int pipeline, int books, SplittableRandom random, long[] latencies) throws IOException {
+        try (Connection connection = new Connection(port)) {
+            for (int batch = from; batch < to; batch += pipeline) {
+                int end = Math.min(to, batch + pipeline);
+                for (int i = batch; i < end; i++) {
+                    int bookId = 1 + random.nextInt(books);
+                    int patronId = 1 + random.nextInt(1000);
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            connection.out.write("PrintBook(" + bookId + ")\n");
+                            break;
+                        case 1:
+                            connection.out.write("BorrowBook(" + patronId + ", " + bookId + ", " + (1 + random.nextInt(20)) + ")\n");
+                            break;
+                        default:
+                            connection.out.write("ReturnBook(" + patronId + ", " + bookId + ")\n");
+                    }
+                }
+                long sent = System.nanoTime();
+                connection.out.flush();
+                for (int i = batch; i < end; i++) {
+                    connection.awaitResponse();
+                    latencies[i] = System.nanoTime() - sent;
+                }
+            }
+            connection.out.write("Quit()\n");
+            connection.out.flush();
+            connection.awaitResponse();
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(sorted.length * percentile / 100);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static final class Connection implements AutoCloseable {
+        final Socket socket;
+        final Writer out;
+        final BufferedReader in;
+
+        Connection(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        // Skip to the end of the next response
+        void awaitResponse() throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals(LibraryServer.END_OF_RESPONSE)) {
+                    return;
+                }
+            }
+            throw new IOException("Connection closed by the server");
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
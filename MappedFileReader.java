@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reader over a memory-mapped file, used by the batch mode in place of FileReader.
+// The file is mapped in windows of at most MAX_WINDOW bytes, so inputs larger than
+// 2 GB work, and decoded with the same default charset FileReader uses.
+public class MappedFileReader extends Reader {
+    private static final long MAX_WINDOW = 1L << 30;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final CharsetDecoder decoder;
+
+    /** Defines the file offset the current window starts at*/
+    private long windowStart = 0;
+    private MappedByteBuffer window;
+    private boolean flushed = false;
+
+    /** Second half of a surrogate pair decoded for a one-char read, handed out by the next read*/
+    private final CharBuffer carry = CharBuffer.allocate(2).limit(0);
+
+    public MappedFileReader(String fileName) throws IOException {
+        this(fileName, Charset.defaultCharset());
+    }
+
+    public MappedFileReader(String fileName, Charset charset) throws IOException {
+        this.channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        mapWindow(0);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (flushed) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (carry.hasRemaining()) {
+            cbuf[off] = carry.get();
+            return 1;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            boolean lastWindow = windowStart + window.limit() == fileSize;
+            CoderResult result = decoder.decode(window, out, lastWindow);
+            if (out.position() != off) {
+                break;
+            }
+            if (result.isOverflow()) {
+                // A surrogate pair does not fit in one char, decode it aside and hand out the halves one by one
+                carry.clear();
+                decoder.decode(window, carry, lastWindow);
+                carry.flip();
+                out.put(carry.get());
+                break;
+            }
+            if (!lastWindow) {
+                // Bytes of a character cut by the window edge stay unread and start the next window
+                mapWindow(windowStart + window.position());
+            } else {
+                decoder.flush(out);
+                flushed = true;
+                break;
+            }
+        }
+        int read = out.position() - off;
+        return read == 0 && flushed ? -1 : read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void mapWindow(long start) throws IOException {
+        windowStart = start;
+        long length = Math.min(MAX_WINDOW, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters kept by Metrics next to the command latencies
+enum MetricCounter {
+    LEFT_ROTATIONS("Left rotations"),
+    RIGHT_ROTATIONS("Right rotations"),
+    INSERT_FIXUP_STEPS("Insert fixup iterations"),
+    DELETE_FIXUP_STEPS("Delete fixup iterations"),
+    PAGE_SPLITS("B+tree page splits"),
+    PAGE_MERGES("B+tree page merges");
+
+    final String label;
+
+    MetricCounter(String label) {
+        this.label = label;
+    }
+}
+
+// Operation metrics, off by default.
+// As with Trace the switch is read once into a static final, so a guarded call site such as
+//     if (Metrics.ON) Metrics.count(MetricCounter.LEFT_ROTATIONS);
+// is removed by the JIT when -Dgator.metrics=true is not given.
+// Recording never allocates: every counter and histogram bucket is a slot of an AtomicLongArray
+// sized at startup, and the concurrent engine and the parallel batch workers record side by side.
+// Latencies go into log-linear histograms in the style of HdrHistogram: values below SUB_BUCKETS
+// get a bucket each, and every power of two above is split into SUB_BUCKETS equal buckets, so a
+// recorded value is known to within 1/SUB_BUCKETS (about 3%) all the way up to Long.MAX_VALUE.
+public final class Metrics {
+    public static final boolean ON = Boolean.getBoolean("gator.metrics");
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Buckets of one histogram: SUB_BUCKETS for each possible highest set bit from SUB_BUCKET_BITS on, plus the exact ones*/
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final MetricCounter[] COUNTERS = MetricCounter.values();
+
+    /** Latency histogram of opcode o in slots [o * BUCKETS, (o + 1) * BUCKETS)*/
+    private static final AtomicLongArray latencies = new AtomicLongArray(ON ? OPCODES.length * BUCKETS : 0);
+    private static final AtomicLongArray commands = new AtomicLongArray(ON ? OPCODES.length : 0);
+    private static final AtomicLongArray totalNanos = new AtomicLongArray(ON ? OPCODES.length : 0);
+    private static final AtomicLongArray maxNanos = new AtomicLongArray(ON ? OPCODES.length : 0);
+
+    private static final AtomicLongArray counters = new AtomicLongArray(ON ? COUNTERS.length : 0);
+
+    /** How many patrons were waiting, the new one included, each time a reservation was added*/
+    private static final AtomicLongArray waitlistLengths = new AtomicLongArray(ON ? ReservationNode.MAX_WAITLIST + 1 : 0);
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private Metrics() {
+    }
+
+    public static void command(Opcode opcode, long nanos) {
+        int o = opcode.ordinal();
+        long value = Math.max(0, nanos);
+        latencies.getAndIncrement(o * BUCKETS + bucket(value));
+        commands.getAndIncrement(o);
+        totalNanos.getAndAdd(o, value);
+        maxNanos.accumulateAndGet(o, value, Math::max);
+    }
+
+    public static void count(MetricCounter counter) {
+        counters.getAndIncrement(counter.ordinal());
+    }
+
+    public static long get(MetricCounter counter) {
+        return ON ? counters.get(counter.ordinal()) : 0;
+    }
+
+    public static void waitlistLength(int length) {
+        waitlistLengths.getAndIncrement(Math.min(length, waitlistLengths.length() - 1));
+    }
+
+    // Everything recorded so far as the Stats command prints it; the tree's shape comes from the caller
+    static void print(PrintWriter pw, int treeHeight, String colorFlips) {
+        if (!ON) {
+            pw.println("Stats: n/a\n");
+            return;
+        }
+        pw.println("Stats:");
+        pw.println(String.format("%-18s %10s %10s %10s %10s %10s %10s %10s",
+                "Command", "Count", "Mean(ns)", "p50(ns)", "p90(ns)", "p99(ns)", "p99.9(ns)", "Max(ns)"));
+        for (Opcode opcode : OPCODES) {
+            int o = opcode.ordinal();
+            long count = commands.get(o);
+            if (count == 0) {
+                continue;
+            }
+            StringBuilder line = new StringBuilder(String.format("%-18s %10d %10d",
+                    opcode == Opcode.INVALID ? "(invalid)" : new String(opcode.name), count, totalNanos.get(o) / count));
+            for (double percentile : PERCENTILES) {
+                line.append(String.format(" %10d", percentile(o, count, percentile)));
+            }
+            pw.println(line.append(String.format(" %10d", maxNanos.get(o))));
+        }
+        pw.println("Tree height: " + (treeHeight >= 0 ? String.valueOf(treeHeight) : "n/a"));
+        pw.println("Color flips: " + colorFlips);
+        for (MetricCounter counter : COUNTERS) {
+            pw.println(counter.label + ": " + counters.get(counter.ordinal()));
+        }
+        StringBuilder lengths = new StringBuilder("Wait list length on reservation:");
+        for (int length = 1; length < waitlistLengths.length(); length++) {
+            long seen = waitlistLengths.get(length);
+            if (seen > 0) {
+                lengths.append(' ').append(length).append('=').append(seen);
+            }
+        }
+        pw.println(lengths.append('\n'));
+    }
+
+    // Highest value of the bucket the given percentile of opcode o's latencies falls into
+    private static long percentile(int o, long count, double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += latencies.get(o * BUCKETS + b);
+            if (seen >= rank) {
+                return Math.min(highestValue(b), maxNanos.get(o));
+            }
+        }
+        return maxNanos.get(o);
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
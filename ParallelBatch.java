@@ -0,0 +1,335 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Pipelined executor for the parallel mode (-Dgator.parallel=true). The input is worked through
+// in windows of up to WINDOW commands, each in three stages:
+// 1. parse: the window's commands are copied out of the parser into parallel arrays;
+// 2. partition: every run of single-book commands (PrintBook, BorrowBook, ReturnBook,
+//    CancelReservation, UpdatePriority) is split by bookId into one queue per worker, so the
+//    commands on one book stay on one queue in input order. Every other command is a barrier
+//    and runs alone on the calling thread once the run before it is done;
+// 3. execute: the queues of a run go to a fork-join pool, each writing into its own
+//    OutputBuffer, and the output of every command is then copied to the real writer in
+//    input order.
+// Commands on different books commute and the book map and index only change at barriers, so
+// the output is byte for byte the sequential one. Every command runs through GatorLibrary.execute,
+// read out of the window by a WindowCommand. Workers share nothing but the read-only map
+// and the PatronIndex, which locks per patron; GatorLibrary keeps the sequential loop when the
+// write-ahead log or tracing is on, as those take one writer at a time, and under a borrow limit.
+final class ParallelBatch {
+    private static final int WINDOW = Math.max(1, Integer.getInteger("gator.parallel.window", 4096));
+
+    /** Runs shorter than this are executed in place, forking them costs more than it saves*/
+    private static final int MIN_PARALLEL_RUN = 64;
+
+    private final LibraryEngine library;
+    private final boolean bulkImport;
+    private final ForkJoinPool pool;
+    private final int workers;
+
+    /** The window's commands: opcode, the int and string arguments at their positions 0..3 and
+     * 0..2, and InsertBook's status*/
+    private final Opcode[] opcodes = new Opcode[WINDOW];
+    private final int[] args = new int[4 * WINDOW];
+    private final String[] strings = new String[3 * WINDOW];
+    private final boolean[] statuses = new boolean[WINDOW];
+    private int count;
+
+    /** What stopped the parser inside the window, thrown once the commands before it ran*/
+    private RuntimeException parseError;
+
+    /** Commands of worker w are queue[w * WINDOW, w * WINDOW + queueSize[w])*/
+    private final int[] queue;
+    private final int[] queueSize;
+
+    /** Worker a command ran on, and where its output ends in that worker's buffer*/
+    private final int[] workerOf = new int[WINDOW];
+    private final int[] outputEnd = new int[WINDOW];
+
+    private final OutputBuffer[] buffers;
+    private final PrintWriter[] writers;
+    private final int[] merged;
+
+    /** One view of the window per worker, and the calling thread's for barriers and short runs*/
+    private final WindowCommand[] commands;
+    private final WindowCommand inPlace = new WindowCommand();
+
+    /** Where unknown commands are reported, as in the sequential loop*/
+    private PrintWriter errors;
+
+    ParallelBatch(LibraryEngine library, boolean bulkImport) {
+        this(library, bulkImport, Integer.getInteger("gator.parallel.threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    ParallelBatch(LibraryEngine library, boolean bulkImport, int threads) {
+        this.library = library;
+        this.bulkImport = bulkImport;
+        this.workers = Math.max(1, threads);
+        this.pool = workers > 1 ? new ForkJoinPool(workers) : null;
+        queue = new int[workers * WINDOW];
+        queueSize = new int[workers];
+        buffers = new OutputBuffer[workers];
+        writers = new PrintWriter[workers];
+        merged = new int[workers];
+        commands = new WindowCommand[workers];
+        for (int w = 0; w < workers; w++) {
+            buffers[w] = new OutputBuffer();
+            writers[w] = new PrintWriter(buffers[w]);
+            commands[w] = new WindowCommand();
+        }
+    }
+
+    // Execute the whole input, returns after Quit or at the end of the file
+    void run(CommandParser parser, PrintWriter pw, PrintWriter errors) throws IOException {
+        this.errors = errors;
+        try {
+            while (parse(parser)) {
+                int i = 0;
+                while (i < count) {
+                    if (isSingleBook(opcodes[i])) {
+                        int end = i + 1;
+                        while (end < count && isSingleBook(opcodes[end])) {
+                            end++;
+                        }
+                        // The workers only read the index, staged books must be in before they start
+                        insertStagedBooks();
+                        executeRun(i, end, pw);
+                        i = end;
+                    } else {
+                        if (execute(inPlace, i++, pw)) {
+                            return;
+                        }
+                    }
+                }
+                if (parseError != null) {
+                    throw parseError;
+                }
+            }
+            // The file ended without Quit, a run still being collected belongs to the catalogue too
+            library.insertStagedBooks();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // Stage 1: read up to WINDOW commands, stopping after Quit; false once nothing is left
+    private boolean parse(CommandParser parser) throws IOException {
+        Arrays.fill(strings, 0, 3 * count, null);
+        count = 0;
+        try {
+            while (count < WINDOW && parser.next()) {
+                Opcode opcode = parser.opcode();
+                int at = 4 * count;
+                switch (opcode) {
+                    case PRINT_BOOK:
+                    case DELETE_BOOK:
+                    case FIND_CLOSEST_BOOK:
+                    case PRINT_PATRON:
+                        args[at] = parser.intArg(0);
+                        break;
+                    case PRINT_BOOKS:
+                    case DELETE_BOOKS:
+                    case RETURN_BOOK:
+                    case CANCEL_RESERVATION:
+                    case COUNT_BOOKS:
+                        args[at] = parser.intArg(0);
+                        args[at + 1] = parser.intArg(1);
+                        break;
+                    case BORROW_BOOK:
+                    case UPDATE_PRIORITY:
+                        args[at] = parser.intArg(0);
+                        args[at + 1] = parser.intArg(1);
+                        args[at + 2] = parser.intArg(2);
+                        break;
+                    case PRINT_BOOKS_PAGE:
+                        args[at] = parser.intArg(0);
+                        args[at + 1] = parser.intArg(1);
+                        args[at + 2] = parser.intArg(2);
+                        args[at + 3] = parser.intArg(3);
+                        break;
+                    case INSERT_BOOK:
+                        args[at] = parser.intArg(0);
+                        strings[3 * count + 1] = parser.stringArg(1);
+                        strings[3 * count + 2] = parser.stringArg(2);
+                        statuses[count] = parser.statusArg(3);
+                        break;
+                    case FIND_BY_AUTHOR:
+                    case FIND_BY_TITLE_PREFIX:
+                        strings[3 * count] = parser.stringArg(0);
+                        args[at + 1] = parser.intArg(1);
+                        break;
+                    case INVALID:
+                        strings[3 * count] = parser.stringArg(0);
+                        break;
+                    default:
+                        break;
+                }
+                opcodes[count++] = opcode;
+                if (opcode == Opcode.QUIT) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Sequential execution fails at this line too, after running everything before it
+            parseError = e;
+        }
+        return count > 0 || parseError != null;
+    }
+
+    // Stages 2 and 3 for the single-book commands [from, to)
+    private void executeRun(int from, int to, PrintWriter pw) {
+        if (pool == null || to - from < MIN_PARALLEL_RUN) {
+            for (int i = from; i < to; i++) {
+                execute(inPlace, i, pw);
+            }
+            return;
+        }
+        Arrays.fill(queueSize, 0);
+        for (int i = from; i < to; i++) {
+            int w = workerFor(args[4 * i + (opcodes[i] == Opcode.PRINT_BOOK ? 0 : 1)]);
+            workerOf[i] = w;
+            queue[w * WINDOW + queueSize[w]++] = i;
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers];
+                int forked = 0;
+                for (int w = 0; w < workers; w++) {
+                    if (queueSize[w] > 0) {
+                        int worker = w;
+                        tasks[forked++] = ForkJoinTask.adapt(() -> executeQueue(worker));
+                    }
+                }
+                invokeAll(Arrays.copyOf(tasks, forked));
+            }
+        });
+        Arrays.fill(merged, 0);
+        for (int i = from; i < to; i++) {
+            int w = workerOf[i];
+            pw.write(buffers[w].chars, merged[w], outputEnd[i] - merged[w]);
+            merged[w] = outputEnd[i];
+        }
+        for (OutputBuffer buffer : buffers) {
+            buffer.reset();
+        }
+    }
+
+    private void executeQueue(int worker) {
+        OutputBuffer buffer = buffers[worker];
+        PrintWriter out = writers[worker];
+        WindowCommand command = commands[worker];
+        int start = worker * WINDOW;
+        for (int j = start; j < start + queueSize[worker]; j++) {
+            int i = queue[j];
+            execute(command, i, out);
+            outputEnd[i] = buffer.size;
+        }
+    }
+
+    // Run command i of the window through GatorLibrary.execute, true for Quit
+    private boolean execute(WindowCommand command, int i, PrintWriter out) {
+        command.at = i;
+        return GatorLibrary.execute(command, library, bulkImport, out, errors);
+    }
+
+    private void insertStagedBooks() {
+        if (bulkImport && library.hasStagedBooks()) {
+            library.insertStagedBooks();
+        }
+    }
+
+    private static boolean isSingleBook(Opcode opcode) {
+        switch (opcode) {
+            case PRINT_BOOK:
+            case BORROW_BOOK:
+            case RETURN_BOOK:
+            case CANCEL_RESERVATION:
+            case UPDATE_PRIORITY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private int workerFor(int bookId) {
+        int h = bookId * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), workers);
+    }
+
+    // A command of the window as GatorLibrary.execute reads it, moved from one to the next by at
+    private final class WindowCommand implements Command {
+        int at;
+
+        @Override
+        public Opcode opcode() {
+            return opcodes[at];
+        }
+
+        @Override
+        public int intArg(int index) {
+            return args[4 * at + index];
+        }
+
+        @Override
+        public String stringArg(int index) {
+            return strings[3 * at + index];
+        }
+
+        @Override
+        public boolean statusArg(int index) {
+            return statuses[at];
+        }
+    }
+}
+
+// Growable char buffer a worker prints into, read back directly by the merge
+final class OutputBuffer extends Writer {
+    char[] chars = new char[1 << 12];
+    int size = 0;
+
+    @Override
+    public void write(int c) {
+        ensureCapacity(1);
+        chars[size++] = (char) c;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(cbuf, off, chars, size, len);
+        size += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        ensureCapacity(len);
+        str.getChars(off, off + len, chars, size);
+        size += len;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(size + extra, 2 * chars.length));
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
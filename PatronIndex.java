@@ -0,0 +1,247 @@
+import java.util.Arrays;
+
+// patronId -> the books a patron holds and the books they wait for. The engine updates it on
+// every borrow, reservation, return, allotment, cancellation, replacement and delete, so
+// PrintPatron and the borrow limit cost time in the patron's own books, not in the catalogue.
+// Patrons are spread over SEGMENTS open-addressing maps laid out like IntBookMap, each guarded
+// by its own monitor: ConcurrentLibraryEngine and ParallelBatch run borrows on different books
+// side by side, and those may well be by the same patron. A segment's monitor is always the
+// last lock taken, after the engine's structure lock and book stripe, and nothing else is
+// locked while it is held.
+// Borrowers of 0 and below cannot be told from BookNode's "no borrower" marks, so as in PrintBook
+// they never hold a book; their reservations are tracked like any other. A patron left without
+// books is dropped, so memory follows the patrons currently active.
+final class PatronIndex {
+    private static final int SEGMENT_BITS = 6;
+    private static final int[] NO_BOOKS = new int[0];
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    PatronIndex() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // Record that the patron borrowed the book, unless their books borrowed and reserved together
+    // already reach limit; false then. Counting the reservations too means an allotment can never
+    // take a patron over the limit.
+    boolean borrow(int patronId, int bookId, int limit) {
+        if (patronId <= 0) {
+            return true;
+        }
+        Segment segment = segment(patronId);
+        synchronized (segment) {
+            Patron patron = segment.get(patronId);
+            if (patron == null) {
+                if (limit <= 0) {
+                    return false;
+                }
+                patron = segment.add(patronId);
+            } else if (patron.borrowed.size + patron.reserved.size >= limit) {
+                return false;
+            }
+            patron.borrowed.add(bookId);
+            return true;
+        }
+    }
+
+    // The patron gave the book back, or lost it to a replacement or delete
+    void returned(int patronId, int bookId) {
+        if (patronId <= 0) {
+            return;
+        }
+        Segment segment = segment(patronId);
+        synchronized (segment) {
+            Patron patron = segment.get(patronId);
+            if (patron != null && patron.borrowed.remove(bookId)) {
+                segment.dropIfIdle(patron);
+            }
+        }
+    }
+
+    // Record the patron's reservation for the book under the same limit as borrow; false when refused
+    boolean reserve(int patronId, int bookId, int limit) {
+        Segment segment = segment(patronId);
+        synchronized (segment) {
+            Patron patron = segment.get(patronId);
+            if (patron == null) {
+                if (limit <= 0) {
+                    return false;
+                }
+                patron = segment.add(patronId);
+            } else if (patron.borrowed.size + patron.reserved.size >= limit) {
+                return false;
+            }
+            patron.reserved.add(bookId);
+            return true;
+        }
+    }
+
+    // The patron's reservation is gone: cancelled, or the book left the catalogue
+    void cancel(int patronId, int bookId) {
+        Segment segment = segment(patronId);
+        synchronized (segment) {
+            Patron patron = segment.get(patronId);
+            if (patron != null && patron.reserved.remove(bookId)) {
+                segment.dropIfIdle(patron);
+            }
+        }
+    }
+
+    // A waiting patron was allotted the returned book, which moves from their reservations to their loans
+    void allot(int patronId, int bookId) {
+        Segment segment = segment(patronId);
+        synchronized (segment) {
+            Patron patron = segment.get(patronId);
+            if (patron == null) {
+                patron = segment.add(patronId);
+            }
+            patron.reserved.remove(bookId);
+            if (patronId > 0) {
+                patron.borrowed.add(bookId);
+            } else {
+                segment.dropIfIdle(patron);
+            }
+        }
+    }
+
+    // The patron's borrowed and reserved book ids, each ascending, read together
+    int[][] books(int patronId) {
+        Segment segment = segment(patronId);
+        synchronized (segment) {
+            Patron patron = segment.get(patronId);
+            if (patron == null) {
+                return new int[][] {NO_BOOKS, NO_BOOKS};
+            }
+            return new int[][] {
+                    Arrays.copyOf(patron.borrowed.ids, patron.borrowed.size),
+                    Arrays.copyOf(patron.reserved.ids, patron.reserved.size)};
+        }
+    }
+
+    // Index a book restored from a snapshot: its borrower and everyone waiting for it
+    void addBook(BookNode book) {
+        if (book.getBorrowedBy() > 0) {
+            borrow(book.getBorrowedBy(), book.getBookId(), Integer.MAX_VALUE);
+        }
+        ReservationNode waiting = book.getReservationNode();
+        Reservation[] reservations = waiting.getReservations();
+        for (int i = 0; i < waiting.getSize(); i++) {
+            reserve(reservations[i].getPatronId(), book.getBookId(), Integer.MAX_VALUE);
+        }
+    }
+
+    // Forget a book replaced by an InsertBook of the same id, along with its borrower and wait list
+    void removeBook(BookNode book) {
+        returned(book.getBorrowedBy(), book.getBookId());
+        ReservationNode waiting = book.getReservationNode();
+        Reservation[] reservations = waiting.getReservations();
+        for (int i = 0; i < waiting.getSize(); i++) {
+            cancel(reservations[i].getPatronId(), book.getBookId());
+        }
+    }
+
+    private Segment segment(int patronId) {
+        return segments[(patronId * 0x9E3779B9) >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    private static final class Patron {
+        final int patronId;
+        final PostingList borrowed = new PostingList();
+        final PostingList reserved = new PostingList();
+
+        Patron(int patronId) {
+            this.patronId = patronId;
+        }
+    }
+
+    // One segment's patrons: parallel key and value arrays, linear probing, backward-shift removal
+    private static final class Segment {
+        private int[] keys = new int[16];
+        private Patron[] values = new Patron[16];
+        private int size = 0;
+        private int mask = 15;
+
+        Patron get(int patronId) {
+            int index = slot(patronId);
+            Patron patron;
+            while ((patron = values[index]) != null) {
+                if (keys[index] == patronId) {
+                    return patron;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        // New patron, the caller has checked they are absent
+        Patron add(int patronId) {
+            if (size + 1 > (keys.length >> 1) + (keys.length >> 2)) {
+                rehash(keys.length << 1);
+            }
+            Patron patron = new Patron(patronId);
+            int index = slot(patronId);
+            while (values[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = patronId;
+            values[index] = patron;
+            size++;
+            return patron;
+        }
+
+        void dropIfIdle(Patron patron) {
+            if (patron.borrowed.size > 0 || patron.reserved.size > 0) {
+                return;
+            }
+            int index = slot(patron.patronId);
+            while (values[index] != patron) {
+                index = (index + 1) & mask;
+            }
+            shiftBack(index);
+            size--;
+        }
+
+        private void shiftBack(int hole) {
+            int index = hole;
+            while (true) {
+                index = (index + 1) & mask;
+                if (values[index] == null) {
+                    break;
+                }
+                int home = slot(keys[index]);
+                boolean movable = hole <= index ? (home <= hole || home > index) : (home <= hole && home > index);
+                if (movable) {
+                    keys[hole] = keys[index];
+                    values[hole] = values[index];
+                    hole = index;
+                }
+            }
+            values[hole] = null;
+        }
+
+        private int slot(int patronId) {
+            int h = patronId * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            Patron[] oldValues = values;
+            keys = new int[capacity];
+            values = new Patron[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    int index = slot(oldKeys[i]);
+                    while (values[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Keeps a LibraryEngine's state in a data directory across restarts (-Dgator.data=<dir>).
+// Every mutating command goes to the write-ahead log before it is applied, and every
+// snapshotEvery logged commands (-Dgator.snapshot.every) a snapshot of the whole catalogue is
+// written, after which the log segments and snapshots it supersedes are deleted.
+// Opening the directory loads the newest snapshot and replays only the log written after it,
+// so startup time follows the size of the catalogue rather than the length of its history.
+public final class Persistence implements Closeable {
+    private static final int DEFAULT_GROUP_SIZE = 128;
+    private static final long DEFAULT_SNAPSHOT_EVERY = 1_000_000;
+
+    private final Path dir;
+    private final LibraryEngine engine;
+    private final WriteAheadLog wal;
+    private final long snapshotEvery;
+
+    /** Lsn covered by the newest snapshot*/
+    private long snapshotLsn;
+
+    private Persistence(Path dir, LibraryEngine engine, WriteAheadLog wal, long snapshotEvery, long snapshotLsn) {
+        this.dir = dir;
+        this.engine = engine;
+        this.wal = wal;
+        this.snapshotEvery = snapshotEvery;
+        this.snapshotLsn = snapshotLsn;
+    }
+
+    // Recover a fresh engine from dir, creating the directory on first use, and start logging its changes
+    public static Persistence open(Path dir, LibraryEngine engine) throws IOException {
+        Files.createDirectories(dir);
+        List<Path> snapshots = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.matches("snapshot-\\d{20}\\.bin")) {
+                    snapshots.add(file);
+                } else if (name.matches("snapshot-\\d{20}\\.bin\\.tmp")) {
+                    // Left behind by a crash while the snapshot was written
+                    file.toFile().delete();
+                }
+            });
+        }
+        Collections.sort(snapshots);
+        long snapshotLsn = snapshots.isEmpty() ? 0 : Snapshot.read(snapshots.get(snapshots.size() - 1), engine);
+        long nextLsn = WriteAheadLog.replay(dir, snapshotLsn, engine);
+
+        WriteAheadLog wal = WriteAheadLog.open(dir, nextLsn, Integer.getInteger("gator.wal.group", DEFAULT_GROUP_SIZE));
+        engine.wal = wal;
+        long snapshotEvery = Math.max(1, Long.getLong("gator.snapshot.every", DEFAULT_SNAPSHOT_EVERY));
+        return new Persistence(dir, engine, wal, snapshotEvery, snapshotLsn);
+    }
+
+    // Take a snapshot when snapshotEvery commands were logged since the last one
+    public void maybeCheckpoint() throws IOException {
+        if (wal.nextLsn() - snapshotLsn >= snapshotEvery) {
+            checkpoint();
+        }
+    }
+
+    // Snapshot the catalogue now and drop what the snapshot makes redundant
+    public void checkpoint() throws IOException {
+        long lsn = engine.checkpoint(dir);
+        List<Path> older = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().matches("snapshot-\\d{20}\\.bin"))
+                    .filter(file -> file.getFileName().toString().compareTo(Snapshot.fileName(lsn)) < 0)
+                    .forEach(older::add);
+        }
+        for (Path snapshot : older) {
+            Files.deleteIfExists(snapshot);
+        }
+        wal.deleteSegmentsBefore(lsn);
+        snapshotLsn = lsn;
+    }
+
+    // Make every command logged so far durable, one fsync for all of them
+    public void sync() throws IOException {
+        wal.sync();
+    }
+
+    // Sync the log; everything logged so far is recovered on the next start
+    @Override
+    public void close() throws IOException {
+        engine.wal = null;
+        wal.close();
+    }
+}
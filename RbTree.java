@@ -1,23 +1,58 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 // Red-Black Tree Node
 class Node {
     int data;
+    BookNode book;
     Node parent;
     Node left;
     Node right;
     int color;
+
+    /** Number of nodes in the subtree rooted here, 0 for nullLeaf*/
+    int size;
 }
 
-// Red-Black Tree
-public class RbTree {
+// Red-Black Tree, every node augmented with the size of its subtree so rank, select and
+// countInRange run in O(log n). Rotations recompute the two sizes they change, insert and
+// delete adjust the sizes on the path to the root of the node they add or take out.
+// deleteRange cuts a whole key range out with split and join, see there.
+public class RbTree implements BookIndex {
+    private static final BookNode[] NO_BOOKS = new BookNode[0];
+
+    /** Deeper than any red-black tree of up to 2^31 nodes, which is at most 2 log2(n + 1) high.
+     * A walk down that goes on longer read links torn by a concurrent writer, see BookIndex.floor*/
+    private static final int MAX_DEPTH = 64;
+
+    /** Ranges of fewer books are deleted one at a time, which is cheaper than the splits and join*/
+    private static final int SPLIT_MIN_BOOKS = 32;
+
     private Node root;
     private Node nullLeaf;
     private int colorFlips = 0;
 
+    /** What split leaves behind: the trees of the keys below and from the split key on, and their black heights*/
+    private Node splitLow;
+    private Node splitHigh;
+    private int splitLowHeight;
+    private int splitHighHeight;
+
+    /** Black height of the tree join returned last*/
+    private int joinedHeight;
+
+    /** Split's walk down to the split key: the nodes passed and their black heights*/
+    private final Node[] splitPath = new Node[MAX_DEPTH];
+    private final int[] splitHeights = new int[MAX_DEPTH];
+
     // Balance the tree after deletion
     private void fixDelete(Node x) {
-        System.out.println("fix delete start for: "+x.data + " - " + x.color);
+        if (Trace.ON) Trace.event(TraceEvent.FIX_DELETE_START, x.data, x.color);
         Node n;
         while (x != root && x.color == 0) {
+            if (Metrics.ON) Metrics.count(MetricCounter.DELETE_FIXUP_STEPS);
             if (x == x.parent.left) {
                 n = x.parent.right;
                 if (n.color == 1) {
@@ -80,7 +115,7 @@ public class RbTree {
             }
         }
         x.color = 0;
-        System.out.println("fix delete end for: "+x.data + " - " + x.color);
+        if (Trace.ON) Trace.event(TraceEvent.FIX_DELETE_END, x.data, x.color);
     }
 
     private void rbTransplant(Node u, Node v) {
@@ -99,10 +134,12 @@ public class RbTree {
         Node x, y;
         while (node != nullLeaf) {
             if (node.data == key) {
+                // Keys are unique, nothing below can match again
                 temp = node;
+                break;
             }
 
-            if (node.data <= key) {
+            if (node.data < key) {
                 node = node.right;
             } else {
                 node = node.left;
@@ -110,33 +147,39 @@ public class RbTree {
         }
 
         if (temp == nullLeaf) {
-            System.out.println("Couldn't find key in the tree");
+            if (Trace.ON) Trace.event(TraceEvent.DELETE_MISSING, key);
             return;
         }
 
         y = temp;
         int yOriginalColor = y.color;
         if (temp.left == nullLeaf) {
+            shrinkPath(temp);
             x = temp.right;
             rbTransplant(temp, temp.right);
         } else if (temp.right == nullLeaf) {
+            shrinkPath(temp);
             x = temp.left;
             rbTransplant(temp, temp.left);
         } else {
             y = maximum(temp.left);
+            // y leaves its own place to take temp's, every ancestor of that place loses a node
+            shrinkPath(y);
             yOriginalColor = y.color;
-            x = y.right;
+            x = y.left;
             if (y.parent == temp) {
                 x.parent = y;
             } else {
-                rbTransplant(y, y.right);
-                y.right = temp.right;
-                y.right.parent = y;
+                // y is the in-order predecessor, so it can only have a left child
+                rbTransplant(y, y.left);
+                y.left = temp.left;
+                y.left.parent = y;
             }
 
             rbTransplant(temp, y);
             y.right = temp.right;
             y.right.parent = y;
+            y.size = temp.size;
             y.color = temp.color;
             colorFlips++;
         }
@@ -147,9 +190,10 @@ public class RbTree {
     }
 
     private void fixInsert(Node newNode){
-        System.out.println("fix insert start for: "+newNode.data + " - " + newNode.color);
+        if (Trace.ON) Trace.event(TraceEvent.FIX_INSERT_START, newNode.data, newNode.color);
         Node uncleNode;
         while (newNode.parent.color == 1) {
+            if (Metrics.ON) Metrics.count(MetricCounter.INSERT_FIXUP_STEPS);
             if (newNode.parent == newNode.parent.parent.right) {
                 uncleNode = newNode.parent.parent.left; // uncle
                 if (uncleNode.color == 1) {
@@ -200,11 +244,12 @@ public class RbTree {
             root.color = 0;
             colorFlips--; // since the color root node changes back to black, reducing the colorFipCount
         }
-        System.out.println("fix insert start for: "+newNode.data + " - " + newNode.color);
+        if (Trace.ON) Trace.event(TraceEvent.FIX_INSERT_END, newNode.data, newNode.color);
     }
 
     private void leftRotate(Node x) {
-        System.out.println("rotating left at node: " + x.data + " - " + x.color);
+        if (Trace.ON) Trace.event(TraceEvent.ROTATE_LEFT, x.data, x.color);
+        if (Metrics.ON) Metrics.count(MetricCounter.LEFT_ROTATIONS);
         Node y = x.right;
         x.right = y.left;
         if (y.left != nullLeaf) {
@@ -220,10 +265,13 @@ public class RbTree {
         }
         y.left = x;
         x.parent = y;
+        y.size = x.size;
+        x.size = x.left.size + x.right.size + 1;
     }
 
     private void rightRotate(Node grandParentNode) {
-        System.out.println("rotating right at node: " + grandParentNode.data + " - " + grandParentNode.color);
+        if (Trace.ON) Trace.event(TraceEvent.ROTATE_RIGHT, grandParentNode.data, grandParentNode.color);
+        if (Metrics.ON) Metrics.count(MetricCounter.RIGHT_ROTATIONS);
         Node parentNode = grandParentNode.left;
         grandParentNode.left = parentNode.right;
         if (parentNode.right != nullLeaf) {
@@ -239,20 +287,36 @@ public class RbTree {
         }
         parentNode.right = grandParentNode;
         grandParentNode.parent = parentNode;
+        parentNode.size = grandParentNode.size;
+        grandParentNode.size = grandParentNode.left.size + grandParentNode.right.size + 1;
+    }
+
+    // One node fewer below every ancestor of node
+    private void shrinkPath(Node node) {
+        for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.size--;
+        }
     }
 
-    private void insert(int key) {
+    private void insert(int key, BookNode book) {
         Node node = new Node();
         node.parent = null;
         node.data = key;
+        node.book = book;
         node.left = nullLeaf;
         node.right = nullLeaf;
         node.color = 1; // new node must be red
+        node.size = 1;
 
         Node y = null;
         Node x = this.root;
 
         while (x != nullLeaf) {
+            if (node.data == x.data) {
+                // Key already indexed, keep the node and point it at the new book
+                x.book = book;
+                return;
+            }
             y = x;
             if (node.data < x.data) {
                 x = x.left;
@@ -269,6 +333,9 @@ public class RbTree {
         } else {
             y.right = node;
         }
+        for (Node ancestor = y; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.size++;
+        }
 
         if (node.parent == null) {
             node.color = 0;
@@ -290,6 +357,63 @@ public class RbTree {
         return node;
     }
 
+    // Find the minimum node
+    public Node minimum(Node node) {
+        while (node.left != nullLeaf) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    // Next node in key order, or nullLeaf after the last one
+    private Node successor(Node node) {
+        if (node.right != nullLeaf) {
+            return minimum(node.right);
+        }
+        Node parentNode = node.parent;
+        while (parentNode != null && node == parentNode.right) {
+            node = parentNode;
+            parentNode = parentNode.parent;
+        }
+        return parentNode == null ? nullLeaf : parentNode;
+    }
+
+    // Smallest node with data >= key (data > key when not inclusive), or nullLeaf
+    private Node ceilingNode(int key, boolean inclusive) {
+        Node candidate = nullLeaf;
+        Node node = root;
+        for (int depth = 0; node != nullLeaf; depth++) {
+            if (depth == MAX_DEPTH) {
+                throw new IllegalStateException("Tree changed during the walk");
+            }
+            if (node.data > key || (inclusive && node.data == key)) {
+                candidate = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return candidate;
+    }
+
+    // Largest node with data <= key (data < key when not inclusive), or nullLeaf
+    private Node floorNode(int key, boolean inclusive) {
+        Node candidate = nullLeaf;
+        Node node = root;
+        for (int depth = 0; node != nullLeaf; depth++) {
+            if (depth == MAX_DEPTH) {
+                throw new IllegalStateException("Tree changed during the walk");
+            }
+            if (node.data < key || (inclusive && node.data == key)) {
+                candidate = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return candidate;
+    }
+
     // Constructor
     public RbTree() {
         nullLeaf = new Node();
@@ -301,7 +425,85 @@ public class RbTree {
 
     // Insert a node
     public void insertKey(int key) {
-        insert(key);
+        insert(key, null);
+    }
+
+    // Insert a node carrying the book stored under that key
+    public void insertKey(int key, BookNode book) {
+        insert(key, book);
+    }
+
+    // Books with lo <= key <= hi in ascending key order: one descent to the lower bound,
+    // then a successor walk, so a scan costs O(log n + k) for the k books it returns
+    public Iterator<BookNode> range(int lo, int hi) {
+        return new RangeIterator(ceilingNode(lo, true), hi);
+    }
+
+    // Book with the greatest key <= key, or null
+    public BookNode floor(int key) {
+        return floorNode(key, true).book;
+    }
+
+    // Book with the least key >= key, or null
+    public BookNode ceiling(int key) {
+        return ceilingNode(key, true).book;
+    }
+
+    // Book with the greatest key < key, or null
+    public BookNode lower(int key) {
+        return floorNode(key, false).book;
+    }
+
+    // Book with the least key > key, or null
+    public BookNode higher(int key) {
+        return ceilingNode(key, false).book;
+    }
+
+    // Number of books with an id below key: a descent that adds up the left subtrees it passes
+    public int rank(int key) {
+        return countBelow(key, false);
+    }
+
+    // Book with the k-th smallest id, counting from 0, or null when k is out of range
+    public BookNode select(int k) {
+        if (k < 0 || k >= root.size) {
+            return null;
+        }
+        Node node = root;
+        while (true) {
+            int leftSize = node.left.size;
+            if (k < leftSize) {
+                node = node.left;
+            } else if (k == leftSize) {
+                return node.book;
+            } else {
+                k -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    // Number of books with lo <= id <= hi, two descents whatever the size of the range
+    public int countInRange(int lo, int hi) {
+        if (lo > hi) {
+            return 0;
+        }
+        return countBelow(hi, true) - countBelow(lo, false);
+    }
+
+    // Number of nodes with data < key (data <= key when inclusive)
+    private int countBelow(int key, boolean inclusive) {
+        int count = 0;
+        Node node = root;
+        while (node != nullLeaf) {
+            if (node.data < key || (inclusive && node.data == key)) {
+                count += node.left.size + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
     }
 
     // Delete a node
@@ -312,4 +514,325 @@ public class RbTree {
     public int getColorFlips() {
         return colorFlips;
     }
+
+    // Take every node with lo <= key <= hi out and return their books in ascending key order.
+    // Two splits cut the tree into the keys below lo, the range and the keys above hi, then the
+    // outer two are joined again. Split and join run in O(log n) as in Blelloch, Ferizovic and
+    // Sun, "Just Join for Parallel Ordered Sets", so with collecting the k books the whole call
+    // costs O(log n + k). Ranges under SPLIT_MIN_BOOKS go through deleteNode instead. Color flip
+    // accounting: every node whose color a split or join changes counts one flip.
+    public BookNode[] deleteRange(int lo, int hi) {
+        int count = lo > hi ? 0 : countInRange(lo, hi);
+        if (count == 0) {
+            return NO_BOOKS;
+        }
+        if (count < SPLIT_MIN_BOOKS) {
+            BookNode[] books = new BookNode[count];
+            Iterator<BookNode> range = range(lo, hi);
+            for (int i = 0; i < count; i++) {
+                books[i] = range.next();
+            }
+            for (BookNode book : books) {
+                deleteNode(book.getBookId());
+            }
+            return books;
+        }
+        split(root, blackHeight(root), lo);
+        Node below = splitLow;
+        int belowHeight = splitLowHeight;
+        Node range = splitHigh;
+        Node above = nullLeaf;
+        int aboveHeight = 0;
+        if (hi < Integer.MAX_VALUE) {
+            split(range, splitHighHeight, hi + 1);
+            range = splitLow;
+            above = splitHigh;
+            aboveHeight = splitHighHeight;
+        }
+        BookNode[] books = new BookNode[range.size];
+        collect(range, books, 0);
+
+        if (below == nullLeaf) {
+            root = above;
+        } else if (above == nullLeaf) {
+            root = below;
+        } else {
+            // The largest key below the range is split off to stand between the two in the join
+            Node middle = maximum(below);
+            split(below, belowHeight, middle.data);
+            root = join(splitLow, splitLowHeight, middle, above, aboveHeight);
+        }
+        root.parent = null;
+        recolor(root, 0);
+        return books;
+    }
+
+    // Split tree, whose black height is height, into splitLow with the keys below key and
+    // splitHigh with the rest. Walks down to key, then back up joining every node on the way
+    // with its subtree off the path onto the side it belongs to. Those subtrees and the growing
+    // trees differ in black height by no more than the steps between them, so the joins add up
+    // to O(log n).
+    private void split(Node tree, int height, int key) {
+        Node[] path = splitPath;
+        int[] heights = splitHeights;
+        int depth = 0;
+        for (Node node = tree; node != nullLeaf; node = key <= node.data ? node.left : node.right) {
+            path[depth] = node;
+            heights[depth++] = height;
+            if (node.color == 0) {
+                height--;
+            }
+        }
+        Node low = nullLeaf;
+        Node high = nullLeaf;
+        int lowHeight = 0;
+        int highHeight = 0;
+        for (int i = depth - 1; i >= 0; i--) {
+            Node node = path[i];
+            int childHeight = node.color == 0 ? heights[i] - 1 : heights[i];
+            if (key <= node.data) {
+                high = join(high, highHeight, node, detach(node.right), childHeight);
+                highHeight = joinedHeight;
+            } else {
+                low = join(detach(node.left), childHeight, node, low, lowHeight);
+                lowHeight = joinedHeight;
+            }
+        }
+        splitLow = low;
+        splitHigh = high;
+        splitLowHeight = lowHeight;
+        splitHighHeight = highHeight;
+    }
+
+    // One tree of left, middle and right, every key of left below middle's and every key of
+    // right above it. Red roots are blackened first. The shorter tree then hangs off the taller
+    // one's spine under middle, colored red, at the first black node of the same black height.
+    // A red parent above it is repaired by rotating the grandparent down, which moves the
+    // conflict two levels up, so the cost follows the difference in black heights.
+    // Sets joinedHeight.
+    private Node join(Node left, int leftHeight, Node middle, Node right, int rightHeight) {
+        middle.parent = null;
+        if (left.color == 1) {
+            recolor(left, 0);
+            leftHeight++;
+        }
+        if (right.color == 1) {
+            recolor(right, 0);
+            rightHeight++;
+        }
+        if (leftHeight == rightHeight) {
+            link(middle, left, right);
+            recolor(middle, 1);
+            joinedHeight = leftHeight;
+            return middle;
+        }
+        boolean intoLeft = leftHeight > rightHeight;
+        Node shorter = intoLeft ? right : left;
+        int target = intoLeft ? rightHeight : leftHeight;
+        int height = intoLeft ? leftHeight : rightHeight;
+        joinedHeight = height;
+
+        Node parentNode = null;
+        Node node = intoLeft ? left : right;
+        while (node.color != 0 || height != target) {
+            if (node.color == 0) {
+                height--;
+            }
+            parentNode = node;
+            node = intoLeft ? node.right : node.left;
+        }
+        if (intoLeft) {
+            link(middle, node, shorter);
+            parentNode.right = middle;
+        } else {
+            link(middle, shorter, node);
+            parentNode.left = middle;
+        }
+        middle.parent = parentNode;
+        recolor(middle, 1);
+        for (Node ancestor = parentNode; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.size += shorter.size + 1;
+        }
+
+        Node top = middle;
+        while (top.color == 1 && top.parent != null && top.parent.color == 1) {
+            // The taller tree's root is black, so a red parent always has a parent of its own
+            Node parent = top.parent;
+            Node grandParent = parent.parent;
+            recolor(top, 0);
+            if (intoLeft) {
+                leftRotate(grandParent);
+            } else {
+                rightRotate(grandParent);
+            }
+            top = parent;
+        }
+        while (top.parent != null) {
+            top = top.parent;
+        }
+        return top;
+    }
+
+    // Make left and right the children of node, which takes their combined size
+    private void link(Node node, Node left, Node right) {
+        node.left = left;
+        node.right = right;
+        if (left != nullLeaf) {
+            left.parent = node;
+        }
+        if (right != nullLeaf) {
+            right.parent = node;
+        }
+        node.size = left.size + right.size + 1;
+    }
+
+    // Cut a subtree loose to be a tree of its own; its root keeps its color
+    private Node detach(Node node) {
+        if (node != nullLeaf) {
+            node.parent = null;
+        }
+        return node;
+    }
+
+    private void recolor(Node node, int color) {
+        if (node != nullLeaf && node.color != color) {
+            node.color = color;
+            colorFlips++;
+        }
+    }
+
+    // Black nodes on every path from node down to a leaf, node included
+    private int blackHeight(Node node) {
+        int height = 0;
+        for (; node != nullLeaf; node = node.left) {
+            if (node.color == 0) {
+                height++;
+            }
+        }
+        return height;
+    }
+
+    // In-order books of the subtree into books from index at on, returns the index after them
+    private int collect(Node node, BookNode[] books, int at) {
+        if (node == nullLeaf) {
+            return at;
+        }
+        at = collect(node.left, books, at);
+        books[at++] = node.book;
+        return collect(node.right, books, at);
+    }
+
+    public int height() {
+        return height(root);
+    }
+
+    // The recursion is at most as deep as the tree, about 2 log n
+    private int height(Node node) {
+        return node == nullLeaf ? 0 : 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    public void bulkLoad(BookNode[] books, int count) {
+        // Every leaf of a size-balanced tree sits on the deepest level or the one above it, so
+        // coloring the deepest level red, full or not, keeps all black heights equal. A tree of
+        // one node has no level below the root and stays black.
+        int bottom = count > 0 ? 31 - Integer.numberOfLeadingZeros(count) : 0;
+        root = build(books, 0, count - 1, null, 0, bottom);
+    }
+
+    // Middle book of lo..hi becomes the subtree root, the halves become its children
+    private Node build(BookNode[] books, int lo, int hi, Node parentNode, int depth, int bottom) {
+        if (lo > hi) {
+            return nullLeaf;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node node = new Node();
+        node.data = books[mid].getBookId();
+        node.book = books[mid];
+        node.parent = parentNode;
+        if (depth == bottom && depth > 0) {
+            node.color = 1;
+            colorFlips++;
+        }
+        node.left = build(books, lo, mid - 1, node, depth + 1, bottom);
+        node.right = build(books, mid + 1, hi, node, depth + 1, bottom);
+        node.size = hi - lo + 1;
+        return node;
+    }
+
+    public void preorder(ShapeVisitor visitor) throws IOException {
+        preorder(root, visitor);
+    }
+
+    // The recursion is at most as deep as the tree, about 2 log n
+    private void preorder(Node node, ShapeVisitor visitor) throws IOException {
+        if (node == nullLeaf) {
+            return;
+        }
+        visitor.visit(node.book, node.color == 1);
+        preorder(node.left, visitor);
+        preorder(node.right, visitor);
+    }
+
+    // Rebuild from preorder: a node goes left of the top of the stack when its key is smaller,
+    // otherwise right of the last ancestor popped for having a smaller key
+    public void restore(BookNode[] books, boolean[] red, int count, int colorFlips) {
+        root = nullLeaf;
+        ArrayDeque<Node> path = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            Node node = new Node();
+            node.data = books[i].getBookId();
+            node.book = books[i];
+            node.color = red[i] ? 1 : 0;
+            node.left = nullLeaf;
+            node.right = nullLeaf;
+            if (path.isEmpty()) {
+                root = node;
+            } else if (node.data < path.peek().data) {
+                node.parent = path.peek();
+                node.parent.left = node;
+            } else {
+                Node parentNode = path.pop();
+                while (!path.isEmpty() && path.peek().data < node.data) {
+                    parentNode = path.pop();
+                }
+                node.parent = parentNode;
+                parentNode.right = node;
+            }
+            path.push(node);
+        }
+        computeSizes(root);
+        this.colorFlips = colorFlips;
+    }
+
+    // Subtree sizes bottom up, the snapshot does not store them
+    private int computeSizes(Node node) {
+        if (node == nullLeaf) {
+            return 0;
+        }
+        node.size = computeSizes(node.left) + computeSizes(node.right) + 1;
+        return node.size;
+    }
+
+    private class RangeIterator implements Iterator<BookNode> {
+        private Node next;
+        private final int hi;
+
+        RangeIterator(Node first, int hi) {
+            this.next = first;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != nullLeaf && next.data <= hi;
+        }
+
+        @Override
+        public BookNode next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Node current = next;
+            next = successor(current);
+            return current.book;
+        }
+    }
 }
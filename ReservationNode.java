@@ -1,4 +1,5 @@
 import java.util.Arrays;
+import java.util.Comparator;
 
 class Reservation {
     /** Defines the ID of a patron*/
@@ -10,12 +11,21 @@ class Reservation {
     /** Defines the timestamp of the reservation*/
     private long timeOfReservation;
 
+    /** Defines the order of arrival on the book's wait list, breaks ties within one millisecond*/
+    private int sequence;
+
     public Reservation(int patronID, int priorityNumber, long timeOfReservation) {
         this.patronID = patronID;
         this.priorityNumber = priorityNumber;
         this.timeOfReservation = timeOfReservation;
     }
 
+    // Reservation restored from a snapshot, keeping its place in the arrival order
+    Reservation(int patronID, int priorityNumber, long timeOfReservation, int sequence) {
+        this(patronID, priorityNumber, timeOfReservation);
+        this.sequence = sequence;
+    }
+
     public int getPatronId(){
         return patronID;
     }
@@ -27,17 +37,89 @@ class Reservation {
     public long getTimeOfReservation() {
         return timeOfReservation;
     }
+
+    int getSequence() {
+        return sequence;
+    }
+
+    void setPriorityNumber(int priorityNumber) {
+        this.priorityNumber = priorityNumber;
+    }
+
+    void setSequence(int sequence) {
+        this.sequence = sequence;
+    }
 }
 
+// Indexed binary min-heap of a book's reservations: lowest priority number first, then the
+// earliest reservation time, then the earliest arrival, so the order is total.
+// Each patron holds at most one reservation here, which lets a patronId -> slot index find any
+// patron in O(1); remove, updatePriority and contains then cost O(log n) at most. Short wait
+// lists are scanned instead, the index is only built once more than INDEX_THRESHOLD wait.
+// At most MAX_WAITLIST patrons wait for one book (-Dgator.waitlist.max, 20 by default). Most books
+// never have a wait list: they all share EMPTY, and BookNode swaps in a heap of their own on the
+// first reservation and back to EMPTY once it drains. The array is only allocated by the first add.
+// It starts at INITIAL_CAPACITY and doubles up to that bound, or with -Dgator.waitlist.fixed=true
+// is allocated at the bound and never regrows, so every book with a wait list costs the same memory.
 public class ReservationNode {
+    /** Wait lists up to this length find a patron by scanning the array*/
+    private static final int INDEX_THRESHOLD = 8;
+
     /** Defines the max length of the reservations wait list*/
-    private int capacity = 20;
+    static final int MAX_WAITLIST = Math.max(1, Integer.getInteger("gator.waitlist.max", 20));
+
+    /** Whether every heap is allocated at MAX_WAITLIST up front*/
+    static final boolean FIXED_CAPACITY = Boolean.getBoolean("gator.waitlist.fixed");
+
+    private static final int INITIAL_CAPACITY = FIXED_CAPACITY ? MAX_WAITLIST : Math.min(20, MAX_WAITLIST);
+
+    /** Slots of every heap nobody has reserved from yet*/
+    private static final Reservation[] NO_SLOTS = new Reservation[0];
+
+    /** Wait list of every book nobody waits for, never added to*/
+    static final ReservationNode EMPTY = new ReservationNode();
+
+    /** Order in which poll hands out reservations*/
+    static final Comparator<Reservation> PRIORITY_ORDER = Comparator.comparingInt(Reservation::getPriorityNumber)
+            .thenComparingLong(Reservation::getTimeOfReservation)
+            .thenComparingInt(Reservation::getSequence);
+
+    /** Defines the length of the reservations array*/
+    private int capacity = 0;
 
     /** Indicates the size of the heap*/
     private int size = 0;
 
     /** Defines the array of reservations as nodes of the heap*/
-    private Reservation[] reservations = new Reservation[capacity];
+    private Reservation[] reservations = NO_SLOTS;
+
+    /** Defines the sequence the next added reservation gets*/
+    private int nextSequence = 0;
+
+    /** Slot of every waiting patron, null while the wait list is short*/
+    private PatronSlots slots;
+
+    /** Waiting patron IDs in ascending order as PrintBook writes them, null once the wait list changed*/
+    private String printed;
+
+    /** Borrower left out of printed*/
+    private int printedWithout;
+
+    public ReservationNode() {
+    }
+
+    // Heap restored from a snapshot, every waiting reservation exactly where it was saved
+    ReservationNode(Reservation[] reservations, int size, int nextSequence) {
+        if (size > 0) {
+            this.capacity = FIXED_CAPACITY ? Math.max(MAX_WAITLIST, size) : reservations.length;
+            this.reservations = Arrays.copyOf(reservations, capacity);
+        }
+        this.size = size;
+        this.nextSequence = nextSequence;
+        if (size > INDEX_THRESHOLD) {
+            buildIndex();
+        }
+    }
 
     public int getSize() {
         return size;
@@ -46,6 +128,11 @@ public class ReservationNode {
     public Reservation[] getReservations() {
         return reservations;
     }
+
+    int getNextSequence() {
+        return nextSequence;
+    }
+
     // Helper methods for getting indices of parent, left child, and right child
     private int getParentIndex(int childIndex) {
         return (childIndex - 1) / 2;
@@ -85,14 +172,31 @@ public class ReservationNode {
 
     private void swap(int index1, int index2) {
         Reservation temp = reservations[index1];
-        reservations[index1] = reservations[index2];
-        reservations[index2] = temp;
+        place(index1, reservations[index2]);
+        place(index2, temp);
+    }
+
+    // Put a reservation into a slot and keep the index in step
+    private void place(int index, Reservation reservation) {
+        reservations[index] = reservation;
+        if (slots != null) {
+            slots.put(reservation.getPatronId(), index);
+        }
+    }
+
+    // Whether the wait list already holds MAX_WAITLIST patrons
+    public boolean isFull() {
+        return size >= MAX_WAITLIST;
     }
 
     private void ensureCapacity() {
-        if (size == capacity) {
-            reservations = Arrays.copyOf(reservations, capacity * 2);
-            capacity *= 2;
+        if (capacity == 0) {
+            capacity = INITIAL_CAPACITY;
+            reservations = new Reservation[capacity];
+        } else if (size == capacity) {
+            // Doubles up to the bound; only a heap already past it, restored under a larger bound, grows further
+            capacity = capacity < MAX_WAITLIST ? (int) Math.min((long) capacity * 2, MAX_WAITLIST) : capacity * 2;
+            reservations = Arrays.copyOf(reservations, capacity);
         }
     }
 
@@ -104,29 +208,150 @@ public class ReservationNode {
     public Reservation poll() {
         if (size == 0) throw new IllegalStateException();
         Reservation reservation = reservations[0];
-        reservations[0] = reservations[size - 1];
+        printed = null;
+        if (slots != null) {
+            slots.remove(reservation.getPatronId());
+        }
         size--;
-        downHeapify();
+        Reservation last = reservations[size];
+        reservations[size] = null;
+        if (size > 0) {
+            place(0, last);
+            downHeapify(0);
+        }
         return reservation;
     }
 
+    // The caller makes sure the patron is not waiting already and the wait list is not full
     public void add(Reservation reservation) {
+        if (this == EMPTY) {
+            throw new UnsupportedOperationException("The shared empty wait list cannot take reservations");
+        }
         ensureCapacity();
-        reservations[size] = reservation;
+        printed = null;
+        reservation.setSequence(nextSequence++);
+        place(size, reservation);
         size++;
-        upHeapify();
+        if (Metrics.ON) Metrics.waitlistLength(size);
+        if (slots == null && size > INDEX_THRESHOLD) {
+            buildIndex();
+        }
+        upHeapify(size - 1);
+    }
+
+    public boolean contains(int patronId) {
+        return indexOf(patronId) >= 0;
+    }
+
+    // Cancel a patron's reservation, returns it or null if the patron was not waiting
+    public Reservation remove(int patronId) {
+        int index = indexOf(patronId);
+        if (index < 0) {
+            return null;
+        }
+        Reservation removed = reservations[index];
+        printed = null;
+        if (slots != null) {
+            slots.remove(patronId);
+        }
+        size--;
+        Reservation last = reservations[size];
+        reservations[size] = null;
+        if (index < size) {
+            place(index, last);
+            restoreHeap(index);
+        }
+        return removed;
+    }
+
+    // Give a waiting patron a new priority number, false if the patron was not waiting
+    public boolean updatePriority(int patronId, int newPriority) {
+        int index = indexOf(patronId);
+        if (index < 0) {
+            return false;
+        }
+        reservations[index].setPriorityNumber(newPriority);
+        restoreHeap(index);
+        return true;
+    }
+
+    // Empty the heap in O(n), returns the reservations that were waiting in no particular order
+    public Reservation[] drain() {
+        if (size == 0) {
+            return NO_SLOTS;
+        }
+        Reservation[] waiting = Arrays.copyOf(reservations, size);
+        Arrays.fill(reservations, 0, size, null);
+        size = 0;
+        slots = null;
+        printed = null;
+        return waiting;
+    }
+
+    // The waiting patron IDs in ascending order, the book's borrower left out, as "[a,b,c]".
+    // Built once and handed out again until the wait list or the borrower changes; a new
+    // priority only moves reservations around, the set of waiting patrons stays the same.
+    public String getPatronList(int borrowedBy) {
+        if (size == 0) {
+            return "[]";
+        }
+        if (printed == null || printedWithout != borrowedBy) {
+            int[] patronIds = new int[size];
+            for (int i = 0; i < size; i++) {
+                patronIds[i] = reservations[i].getPatronId();
+            }
+            Arrays.sort(patronIds);
+            StringBuilder sb = new StringBuilder(2 + 8 * size).append('[');
+            for (int patronId : patronIds) {
+                if (patronId != borrowedBy) {
+                    sb.append(patronId).append(',');
+                }
+            }
+            if (sb.length() > 1) {
+                sb.setLength(sb.length() - 1); // Remove the trailing comma
+            }
+            printed = sb.append(']').toString();
+            printedWithout = borrowedBy;
+        }
+        return printed;
     }
 
-    private void upHeapify() {
-        int index = size - 1;
+    private int indexOf(int patronId) {
+        if (slots != null) {
+            return slots.get(patronId);
+        }
+        for (int i = 0; i < size; i++) {
+            if (reservations[i].getPatronId() == patronId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void buildIndex() {
+        slots = new PatronSlots(size);
+        for (int i = 0; i < size; i++) {
+            slots.put(reservations[i].getPatronId(), i);
+        }
+    }
+
+    // Move the reservation at index up or down until the heap order holds again
+    private void restoreHeap(int index) {
+        if (index > 0 && isHigherPriority(reservations[index], parent(index))) {
+            upHeapify(index);
+        } else {
+            downHeapify(index);
+        }
+    }
+
+    private void upHeapify(int index) {
         while (hasParent(index) && isHigherPriority(reservations[index], parent(index))) {
             swap(getParentIndex(index), index);
             index = getParentIndex(index);
         }
     }
 
-    private void downHeapify() {
-        int index = 0;
+    private void downHeapify(int index) {
         while (hasLeftChild(index)) {
             int smallerChildIndex = getLeftChildIndex(index);
             if (hasRightChild(index) && isHigherPriority(rightChild(index), leftChild(index))) {
@@ -147,9 +372,111 @@ public class ReservationNode {
         if (a.getPriorityNumber() < b.getPriorityNumber()) {
             return true;
         } else if (a.getPriorityNumber() == b.getPriorityNumber()) {
+            if (a.getTimeOfReservation() == b.getTimeOfReservation()) {
+                return a.getSequence() < b.getSequence();
+            }
             return a.getTimeOfReservation() < b.getTimeOfReservation();
         } else {
             return false;
         }
     }
 }
+
+// Open-addressing map from a waiting patron's id to its heap slot, laid out like IntBookMap:
+// parallel int arrays, linear probing and backward-shift removal. A stored value is slot + 1,
+// so 0 marks a free entry.
+class PatronSlots {
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+    private int mask;
+
+    PatronSlots(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1);
+    }
+
+    // Slot of the patron, -1 when absent
+    int get(int patronId) {
+        int index = slot(patronId);
+        while (values[index] != 0) {
+            if (keys[index] == patronId) {
+                return values[index] - 1;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    void put(int patronId, int heapSlot) {
+        int index = slot(patronId);
+        while (values[index] != 0) {
+            if (keys[index] == patronId) {
+                values[index] = heapSlot + 1;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = patronId;
+        values[index] = heapSlot + 1;
+        if (++size > (keys.length >> 1)) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    void remove(int patronId) {
+        int index = slot(patronId);
+        while (values[index] != 0) {
+            if (keys[index] == patronId) {
+                shiftBack(index);
+                size--;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void shiftBack(int hole) {
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            if (values[index] == 0) {
+                break;
+            }
+            int home = slot(keys[index]);
+            boolean movable = hole <= index ? (home <= hole || home > index) : (home <= hole && home > index);
+            if (movable) {
+                keys[hole] = keys[index];
+                values[hole] = values[index];
+                hole = index;
+            }
+        }
+        values[hole] = 0;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != 0) {
+                int index = slot(oldKeys[i]);
+                while (values[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
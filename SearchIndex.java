@@ -0,0 +1,186 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Secondary indexes over the catalogue's authors and titles for FindByAuthor and
+// FindByTitlePrefix, kept up to date by every insert and delete so neither query scans the books.
+// Names are matched after normalize: case folded, whitespace runs collapsed to one space.
+// Every distinct author and title keeps a PostingList, the ids of its books in ascending order:
+// - authors are hashed, so FindByAuthor is one lookup and a copy of the first limit ids;
+// - titles are kept sorted, so the titles with a given prefix are the contiguous run starting
+//   at ceiling(prefix). Only the first limit ids of each list in the run can make the answer;
+//   they go through a max-heap of at most limit ids, and a list is left as soon as its next id
+//   is above everything the heap holds.
+// Not thread-safe for writers; ConcurrentLibraryEngine changes it under its write lock only.
+final class SearchIndex {
+    private static final int[] NO_BOOKS = new int[0];
+
+    private final HashMap<String, PostingList> byAuthor = new HashMap<>();
+    private final TreeMap<String, PostingList> byTitle = new TreeMap<>();
+
+    void add(BookNode book) {
+        int bookId = book.getBookId();
+        byTitle.computeIfAbsent(normalize(book.getBookName()), title -> new PostingList()).add(bookId);
+        byAuthor.computeIfAbsent(normalize(book.getAuthorName()), author -> new PostingList()).add(bookId);
+    }
+
+    // Index books in ascending id order, so every posting list is only appended to
+    void addAll(Iterator<BookNode> books) {
+        while (books.hasNext()) {
+            add(books.next());
+        }
+    }
+
+    void remove(BookNode book) {
+        remove(byTitle, normalize(book.getBookName()), book.getBookId());
+        remove(byAuthor, normalize(book.getAuthorName()), book.getBookId());
+    }
+
+    private static void remove(Map<String, PostingList> index, String key, int bookId) {
+        PostingList books = index.get(key);
+        if (books != null && books.remove(bookId) && books.size == 0) {
+            index.remove(key);
+        }
+    }
+
+    // Ids of the books by author in ascending order, at most limit of them
+    int[] findByAuthor(String author, int limit) {
+        PostingList books = byAuthor.get(normalize(author));
+        if (books == null || limit <= 0) {
+            return NO_BOOKS;
+        }
+        return Arrays.copyOf(books.ids, Math.min(limit, books.size));
+    }
+
+    // Ids of the books whose title starts with prefix in ascending order, at most limit of them
+    int[] findByTitlePrefix(String prefix, int limit) {
+        if (limit <= 0) {
+            return NO_BOOKS;
+        }
+        String key = normalize(prefix);
+        int[] heap = new int[Math.min(limit, 64)];
+        int count = 0;
+        for (Map.Entry<String, PostingList> title : byTitle.tailMap(key, true).entrySet()) {
+            if (!title.getKey().startsWith(key)) {
+                break;
+            }
+            PostingList books = title.getValue();
+            for (int i = 0; i < books.size; i++) {
+                int bookId = books.ids[i];
+                if (count < limit) {
+                    if (count == heap.length) {
+                        heap = Arrays.copyOf(heap, (int) Math.min(limit, 2L * count));
+                    }
+                    siftUp(heap, count++, bookId);
+                } else if (bookId < heap[0]) {
+                    siftDown(heap, count, bookId);
+                } else {
+                    // Every later id of this list is larger still
+                    break;
+                }
+            }
+        }
+        int[] found = Arrays.copyOf(heap, count);
+        Arrays.sort(found);
+        return found;
+    }
+
+    // Case folded, leading and trailing whitespace dropped and every inner run of it made one space
+    static String normalize(String name) {
+        StringBuilder normalized = null;
+        int length = name.length();
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            boolean whitespace = Character.isWhitespace(c);
+            char folded = whitespace ? ' ' : Character.toLowerCase(c);
+            if (normalized == null) {
+                // Most names need no change, the copy starts at the first char that does
+                boolean edge = whitespace && (i == 0 || i == length - 1 || space);
+                if (folded == c && !edge) {
+                    space = whitespace;
+                    continue;
+                }
+                // A single space just passed over is taken back, it is added again before the next word
+                normalized = new StringBuilder(length).append(name, 0, space ? i - 1 : i);
+            }
+            if (whitespace) {
+                space = true;
+                continue;
+            }
+            if (space && normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            space = false;
+            normalized.append(folded);
+        }
+        return normalized == null ? name : normalized.toString();
+    }
+
+    private static void siftUp(int[] heap, int i, int bookId) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] >= bookId) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = bookId;
+    }
+
+    // Replace the largest id with bookId
+    private static void siftDown(int[] heap, int count, int bookId) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= count) {
+                break;
+            }
+            if (child + 1 < count && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (heap[child] <= bookId) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = bookId;
+    }
+}
+
+// Ascending ids of the books sharing one author or title, or held by one patron (PatronIndex).
+// Ids usually arrive in increasing order, so add is an append; otherwise it and remove shift the
+// tail of the array.
+final class PostingList {
+    int[] ids = new int[1];
+    int size = 0;
+
+    void add(int bookId) {
+        int at = size == 0 || ids[size - 1] < bookId ? size : Arrays.binarySearch(ids, 0, size, bookId);
+        if (at >= 0 && at < size) {
+            // Already listed
+            return;
+        }
+        at = at < 0 ? -at - 1 : at;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+        }
+        System.arraycopy(ids, at, ids, at + 1, size - at);
+        ids[at] = bookId;
+        size++;
+    }
+
+    boolean remove(int bookId) {
+        int at = Arrays.binarySearch(ids, 0, size, bookId);
+        if (at < 0) {
+            return false;
+        }
+        System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+        size--;
+        return true;
+    }
+}
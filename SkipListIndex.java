@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Ordered index backed by the JDK's lock-free ConcurrentSkipListMap.
+// Lookups and range scans never block and may run while other threads insert or delete,
+// which suits read-heavy traffic. There is no red-black tree here, so no color flips
+// are counted and ColorFlipCount reports n/a with this backend.
+public class SkipListIndex implements BookIndex {
+    private final ConcurrentSkipListMap<Integer, BookNode> books = new ConcurrentSkipListMap<>();
+
+    @Override
+    public void insertKey(int key, BookNode book) {
+        books.put(key, book);
+    }
+
+    @Override
+    public void deleteNode(int key) {
+        if (books.remove(key) == null) {
+            if (Trace.ON) Trace.event(TraceEvent.DELETE_MISSING, key);
+        }
+    }
+
+    @Override
+    public int getColorFlips() {
+        return 0;
+    }
+
+    @Override
+    public boolean tracksColorFlips() {
+        return false;
+    }
+
+    @Override
+    public boolean isLockFree() {
+        return true;
+    }
+
+    // Weakly consistent: reflects some state of the index at or after the call
+    @Override
+    public Iterator<BookNode> range(int lo, int hi) {
+        if (lo > hi) {
+            return Collections.emptyIterator();
+        }
+        return books.subMap(lo, true, hi, true).values().iterator();
+    }
+
+    @Override
+    public BookNode floor(int key) {
+        return bookOf(books.floorEntry(key));
+    }
+
+    @Override
+    public BookNode ceiling(int key) {
+        return bookOf(books.ceilingEntry(key));
+    }
+
+    @Override
+    public BookNode lower(int key) {
+        return bookOf(books.lowerEntry(key));
+    }
+
+    @Override
+    public BookNode higher(int key) {
+        return bookOf(books.higherEntry(key));
+    }
+
+    // No tree to build and no flips to count, the books simply replace the old content
+    @Override
+    public void bulkLoad(BookNode[] loaded, int count) {
+        books.clear();
+        for (int i = 0; i < count; i++) {
+            books.put(loaded[i].getBookId(), loaded[i]);
+        }
+    }
+
+    // No shape to keep, the books go out in key order
+    @Override
+    public void preorder(ShapeVisitor visitor) throws IOException {
+        for (BookNode book : books.values()) {
+            visitor.visit(book, false);
+        }
+    }
+
+    @Override
+    public void restore(BookNode[] restored, boolean[] red, int count, int colorFlips) {
+        books.clear();
+        for (int i = 0; i < count; i++) {
+            books.put(restored[i].getBookId(), restored[i]);
+        }
+    }
+
+    private static BookNode bookOf(Map.Entry<Integer, BookNode> entry) {
+        return entry == null ? null : entry.getValue();
+    }
+}
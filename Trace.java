@@ -0,0 +1,138 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Trace points in the tree and the library operations
+enum TraceEvent {
+    ROTATE_LEFT("rotating left at node"),
+    ROTATE_RIGHT("rotating right at node"),
+    FIX_INSERT_START("fix insert start for"),
+    FIX_INSERT_END("fix insert end for"),
+    FIX_DELETE_START("fix delete start for"),
+    FIX_DELETE_END("fix delete end for"),
+    DELETE_MISSING("couldn't find key in the tree"),
+    PRINT_BOOK_START("print book start"),
+    PRINT_BOOK_END("print book end"),
+    PRINT_BOOKS_START("print books start"),
+    PRINT_BOOKS_END("print books end"),
+    PRINT_BOOKS_PAGE_START("print books page start"),
+    PRINT_BOOKS_PAGE_END("print books page end"),
+    COUNT_BOOKS_START("count books start"),
+    COUNT_BOOKS_END("count books end"),
+    INSERT_BOOK_START("insert book start"),
+    INSERT_BOOK_END("insert book end"),
+    BULK_LOAD_START("bulk load start"),
+    BULK_LOAD_END("bulk load end"),
+    BORROW_BOOK_START("borrow book start"),
+    BORROW_BOOK_END("borrow book end"),
+    RETURN_BOOK_START("return book start"),
+    RETURN_BOOK_END("return book end"),
+    DELETE_BOOK_START("delete book start"),
+    DELETE_BOOK_END("delete book end"),
+    DELETE_BOOKS_START("delete books start"),
+    DELETE_BOOKS_END("delete books end"),
+    CANCEL_RESERVATION_START("cancel reservation start"),
+    CANCEL_RESERVATION_END("cancel reservation end"),
+    UPDATE_PRIORITY_START("update priority start"),
+    UPDATE_PRIORITY_END("update priority end"),
+    FIND_CLOSEST_BOOK_START("find closest book start"),
+    FIND_CLOSEST_BOOK_END("find closest book end"),
+    FIND_BY_AUTHOR_START("find by author start"),
+    FIND_BY_AUTHOR_END("find by author end"),
+    FIND_BY_TITLE_PREFIX_START("find by title prefix start"),
+    FIND_BY_TITLE_PREFIX_END("find by title prefix end"),
+    PRINT_PATRON_START("print patron start"),
+    PRINT_PATRON_END("print patron end");
+
+    final String label;
+
+    TraceEvent(String label) {
+        this.label = label;
+    }
+}
+
+// Debug tracing, off by default.
+// The level is read once into static finals, so a guarded call site such as
+//     if (Trace.ON) Trace.event(TraceEvent.ROTATE_LEFT, x.data, x.color);
+// is removed entirely by the JIT when tracing is off and costs nothing.
+// -Dgator.trace=events keeps the latest events in a preallocated ring buffer that is
+// dumped at the end of the run; -Dgator.trace=console also prints every event as it happens.
+public final class Trace {
+    public static final int OFF = 0;
+    public static final int EVENTS = 1;
+    public static final int CONSOLE = 2;
+
+    public static final int LEVEL = parseLevel(System.getProperty("gator.trace", "off"));
+
+    /** Guard for every trace call site*/
+    public static final boolean ON = LEVEL >= EVENTS;
+
+    public static final boolean CONSOLE_ON = LEVEL >= CONSOLE;
+
+    private static final int CAPACITY = ON ? Integer.highestOneBit(Math.max(16, Integer.getInteger("gator.trace.capacity", 1 << 16))) : 0;
+
+    /** Ring buffer of recorded events, one slot per event across the parallel arrays*/
+    private static final int[] types = new int[CAPACITY];
+    private static final int[] firstArgs = new int[CAPACITY];
+    private static final int[] secondArgs = new int[CAPACITY];
+    private static final long[] times = new long[CAPACITY];
+
+    /** Total number of events recorded, the next slot is count & (CAPACITY - 1). Server connections
+     * trace from several threads, each event claims a slot of its own*/
+    private static final AtomicLong count = new AtomicLong();
+
+    private Trace() {
+    }
+
+    public static void event(TraceEvent type, int first, int second) {
+        if (!ON) {
+            return;
+        }
+        int slot = (int) (count.getAndIncrement() & (CAPACITY - 1));
+        types[slot] = type.ordinal();
+        firstArgs[slot] = first;
+        secondArgs[slot] = second;
+        times[slot] = System.nanoTime();
+        if (CONSOLE_ON) {
+            System.out.println(type.label + ": " + first + " - " + second);
+        }
+    }
+
+    public static void event(TraceEvent type, int first) {
+        event(type, first, 0);
+    }
+
+    public static void event(TraceEvent type) {
+        event(type, 0, 0);
+    }
+
+    public static long recordedEvents() {
+        return count.get();
+    }
+
+    // Print the retained events oldest first
+    public static void dump(PrintStream out) {
+        if (!ON) {
+            return;
+        }
+        TraceEvent[] events = TraceEvent.values();
+        long end = count.get();
+        long start = Math.max(0, end - CAPACITY);
+        for (long i = start; i < end; i++) {
+            int slot = (int) (i & (CAPACITY - 1));
+            out.println(times[slot] + " " + events[types[slot]].label + ": " + firstArgs[slot] + " - " + secondArgs[slot]);
+        }
+    }
+
+    private static int parseLevel(String level) {
+        switch (level) {
+            case "off":
+                return OFF;
+            case "events":
+                return EVENTS;
+            case "console":
+                return CONSOLE;
+            default:
+                throw new IllegalArgumentException("Unknown trace level: " + level);
+        }
+    }
+}
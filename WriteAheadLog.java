@@ -0,0 +1,396 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Append-only binary log of the commands that change the catalogue, each written before it is applied.
+// BorrowBook is the exception: it is written once the borrow limit has let it through, still under
+// the book's lock, and refused borrows are not written at all (see LibraryEngine.borrowBook).
+// A record is framed as [int payload length][int crc32c of the payload][payload], the payload
+// being a record type byte and the command's arguments, so a tail torn by a crash is spotted
+// and cut off on recovery. Records are numbered by a log sequence number (lsn) that keeps
+// counting across segment files; each segment is named after the lsn of its first record and
+// a new one is started at every snapshot, so the segments a snapshot covers can be deleted.
+//
+// Group commit: an append only copies the record into the active buffer, and a single
+// write + fsync covers every record buffered since the previous one. That happens once
+// groupSize records are waiting (-Dgator.wal.group, 1 syncs every command) and on sync().
+// While one thread syncs a batch the others keep appending into the second buffer.
+public class WriteAheadLog implements Closeable {
+    static final byte INSERT_BOOK = 1;
+    static final byte BORROW_BOOK = 2;
+    static final byte RETURN_BOOK = 3;
+    static final byte DELETE_BOOK = 4;
+    static final byte IMPORT_BOOK = 5;
+    static final byte IMPORT_END = 6;
+    static final byte CANCEL_RESERVATION = 7;
+    static final byte UPDATE_PRIORITY = 8;
+    static final byte DELETE_BOOKS = 9;
+
+    /** Bytes of framing in front of every payload, its length and checksum*/
+    private static final int HEADER = 8;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path dir;
+    private final int groupSize;
+
+    /** Held while a batch is written and synced, taken before the monitor of this log*/
+    private final Object io = new Object();
+
+    /** Segment being appended to, guarded by io*/
+    private FileChannel channel;
+
+    /** Buffer the next batch is written from, guarded by io*/
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Records appended since the last sync, guarded by this*/
+    private ByteBuffer active = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Lsn the next appended record gets, guarded by this*/
+    private long nextLsn;
+
+    /** Number of records in active, guarded by this*/
+    private int unsynced = 0;
+
+    /** Checksums records while they are copied into active, guarded by this*/
+    private final CRC32C crc = new CRC32C();
+
+    /** Each thread encodes its record here before taking the lock*/
+    private final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+
+    private WriteAheadLog(Path dir, long nextLsn, int groupSize) throws IOException {
+        this.dir = dir;
+        this.nextLsn = nextLsn;
+        this.groupSize = Math.max(1, groupSize);
+        this.channel = openSegment(nextLsn);
+    }
+
+    // Start logging at lsn in a fresh segment; recovery has already replayed everything before it
+    static WriteAheadLog open(Path dir, long lsn, int groupSize) throws IOException {
+        return new WriteAheadLog(dir, lsn, groupSize);
+    }
+
+    // The log methods throw UncheckedIOException, so LibraryEngine's signatures stay as they are
+    public void logInsert(int bookId, String bookName, String authorName, boolean availabilityStatus) {
+        logBook(INSERT_BOOK, bookId, bookName, authorName, availabilityStatus);
+    }
+
+    // A bulk-loaded run is logged book by book and closed by logImportEnd; replay drops a run
+    // without its end, the crash came before any of it was applied
+    public void logImportBook(int bookId, String bookName, String authorName, boolean availabilityStatus) {
+        logBook(IMPORT_BOOK, bookId, bookName, authorName, availabilityStatus);
+    }
+
+    public void logImportEnd() {
+        append(startRecord(IMPORT_END, 0));
+    }
+
+    private void logBook(byte type, int bookId, String bookName, String authorName, boolean availabilityStatus) {
+        byte[] name = bookName.getBytes(StandardCharsets.UTF_8);
+        byte[] author = authorName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = startRecord(type, 4 + 4 + name.length + 4 + author.length + 1);
+        record.putInt(bookId);
+        record.putInt(name.length).put(name);
+        record.putInt(author.length).put(author);
+        record.put((byte) (availabilityStatus ? 1 : 0));
+        append(record);
+    }
+
+    public void logBorrow(int patronId, int bookId, int patronPriority, long timeOfReservation) {
+        ByteBuffer record = startRecord(BORROW_BOOK, 4 + 4 + 4 + 8);
+        record.putInt(patronId).putInt(bookId).putInt(patronPriority).putLong(timeOfReservation);
+        append(record);
+    }
+
+    public void logReturn(int patronId, int bookId) {
+        ByteBuffer record = startRecord(RETURN_BOOK, 4 + 4);
+        record.putInt(patronId).putInt(bookId);
+        append(record);
+    }
+
+    public void logCancel(int patronId, int bookId) {
+        ByteBuffer record = startRecord(CANCEL_RESERVATION, 4 + 4);
+        record.putInt(patronId).putInt(bookId);
+        append(record);
+    }
+
+    public void logUpdatePriority(int patronId, int bookId, int newPriority) {
+        ByteBuffer record = startRecord(UPDATE_PRIORITY, 4 + 4 + 4);
+        record.putInt(patronId).putInt(bookId).putInt(newPriority);
+        append(record);
+    }
+
+    public void logDelete(int bookId) {
+        ByteBuffer record = startRecord(DELETE_BOOK, 4);
+        record.putInt(bookId);
+        append(record);
+    }
+
+    public void logDeleteRange(int bookId1, int bookId2) {
+        ByteBuffer record = startRecord(DELETE_BOOKS, 4 + 4);
+        record.putInt(bookId1).putInt(bookId2);
+        append(record);
+    }
+
+    // Lsn of the next record, so the number of records logged since the log began
+    public synchronized long nextLsn() {
+        return nextLsn;
+    }
+
+    // Write out and fsync every record appended so far
+    public void sync() throws IOException {
+        synchronized (io) {
+            ByteBuffer batch;
+            synchronized (this) {
+                if (unsynced == 0) {
+                    return;
+                }
+                batch = active;
+                active = spare;
+                unsynced = 0;
+            }
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+            batch.clear();
+            spare = batch;
+        }
+    }
+
+    // Sync and continue in a new segment, returns its first lsn. The caller makes sure nothing
+    // is appended meanwhile, LibraryEngine.checkpoint runs with the engine to itself.
+    long startSegment() throws IOException {
+        synchronized (io) {
+            sync();
+            channel.close();
+            long lsn = nextLsn();
+            channel = openSegment(lsn);
+            return lsn;
+        }
+    }
+
+    // Remove the segments holding only records before lsn, once a snapshot covers them
+    void deleteSegmentsBefore(long lsn) throws IOException {
+        for (Path segment : segments(dir)) {
+            if (segmentStart(segment) < lsn) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (io) {
+            try {
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private ByteBuffer startRecord(byte type, int payloadLength) {
+        ByteBuffer record = scratch.get();
+        if (record.capacity() < HEADER + 1 + payloadLength) {
+            record = ByteBuffer.allocate(HEADER + 1 + payloadLength);
+            scratch.set(record);
+        }
+        record.clear();
+        record.position(HEADER);
+        record.put(type);
+        return record;
+    }
+
+    private void append(ByteBuffer record) {
+        int payloadLength = record.position() - HEADER;
+        record.putInt(0, payloadLength);
+        record.flip();
+        boolean syncNow;
+        while (true) {
+            synchronized (this) {
+                if (active.remaining() >= record.remaining()) {
+                    crc.reset();
+                    crc.update(record.array(), HEADER, payloadLength);
+                    record.putInt(4, (int) crc.getValue());
+                    active.put(record);
+                    nextLsn++;
+                    syncNow = ++unsynced >= groupSize;
+                    break;
+                }
+                if (active.position() == 0) {
+                    // A record bigger than the whole buffer, only a very long title or author gets here
+                    active = ByteBuffer.allocate(Math.max(2 * active.capacity(), record.remaining()));
+                    continue;
+                }
+            }
+            syncUnchecked();
+        }
+        if (syncNow) {
+            syncUnchecked();
+        }
+    }
+
+    private void syncUnchecked() {
+        try {
+            sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileChannel openSegment(long lsn) throws IOException {
+        // Recovery only reopens a segment's name when it holds no valid record, so truncating is safe
+        return FileChannel.open(dir.resolve(segmentName(lsn)), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // Apply every record from fromLsn on to the engine, returns the lsn after the last one.
+    // A torn or corrupt record ends the log: it is cut off if it sits in the last segment,
+    // anywhere else the log is damaged and an IOException is thrown.
+    static long replay(Path dir, long fromLsn, LibraryEngine engine) throws IOException {
+        List<Path> segments = segments(dir);
+        if (segments.isEmpty()) {
+            return fromLsn;
+        }
+        if (segmentStart(segments.get(0)) > fromLsn) {
+            throw new IOException("Write-ahead log starts at " + segmentStart(segments.get(0)) + ", records from " + fromLsn + " are missing");
+        }
+        PrintWriter discard = new PrintWriter(Writer.nullWriter());
+        CRC32C check = new CRC32C();
+        byte[] payload = new byte[256];
+        long lsn = segmentStart(segments.get(0));
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            if (segmentStart(segment) != lsn) {
+                throw new IOException("Write-ahead log segment " + segment.getFileName() + " does not follow lsn " + lsn);
+            }
+            long size = Files.size(segment);
+            long validBytes = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+                while (true) {
+                    int length;
+                    int checksum;
+                    try {
+                        length = in.readInt();
+                        checksum = in.readInt();
+                        if (length < 1 || length > size - validBytes - HEADER) {
+                            break;
+                        }
+                        if (payload.length < length) {
+                            payload = new byte[Math.max(length, 2 * payload.length)];
+                        }
+                        in.readFully(payload, 0, length);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    check.reset();
+                    check.update(payload, 0, length);
+                    if ((int) check.getValue() != checksum) {
+                        break;
+                    }
+                    if (lsn >= fromLsn) {
+                        apply(ByteBuffer.wrap(payload, 0, length), engine, discard);
+                    }
+                    lsn++;
+                    validBytes += HEADER + length;
+                }
+            }
+            if (validBytes < size) {
+                if (i != segments.size() - 1) {
+                    throw new IOException("Write-ahead log segment " + segment.getFileName() + " is damaged at byte " + validBytes);
+                }
+                try (FileChannel torn = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    torn.truncate(validBytes);
+                    torn.force(true);
+                }
+            }
+        }
+        engine.discardStagedBooks();
+        return Math.max(lsn, fromLsn);
+    }
+
+    private static void apply(ByteBuffer record, LibraryEngine engine, PrintWriter discard) throws IOException {
+        byte type = record.get();
+        switch (type) {
+            case INSERT_BOOK:
+                int bookId = record.getInt();
+                String bookName = readString(record);
+                String authorName = readString(record);
+                engine.insertBook(bookId, bookName, authorName, record.get() != 0);
+                break;
+            case IMPORT_BOOK:
+                int stagedId = record.getInt();
+                String stagedName = readString(record);
+                String stagedAuthor = readString(record);
+                engine.stageBook(stagedId, stagedName, stagedAuthor, record.get() != 0);
+                break;
+            case IMPORT_END:
+                engine.insertStagedBooks();
+                break;
+            case BORROW_BOOK:
+                engine.borrowBook(record.getInt(), record.getInt(), record.getInt(), record.getLong(), Integer.MAX_VALUE, discard);
+                break;
+            case RETURN_BOOK:
+                engine.returnBook(record.getInt(), record.getInt(), discard);
+                break;
+            case DELETE_BOOK:
+                engine.deleteBook(record.getInt(), discard);
+                break;
+            case DELETE_BOOKS:
+                engine.deleteBooks(record.getInt(), record.getInt(), discard);
+                break;
+            case CANCEL_RESERVATION:
+                engine.cancelReservation(record.getInt(), record.getInt(), discard);
+                break;
+            case UPDATE_PRIORITY:
+                engine.updatePriority(record.getInt(), record.getInt(), record.getInt(), discard);
+                break;
+            default:
+                throw new IOException("Unknown write-ahead log record type " + type);
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    // Segment files in lsn order, the zero-padded names sort that way
+    private static List<Path> segments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().matches("wal-\\d{20}\\.log")).forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static String segmentName(long lsn) {
+        return String.format("wal-%020d.log", lsn);
+    }
+
+    private static long segmentStart(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(4, name.length() - 4));
+    }
+}
@@ -0,0 +1,80 @@
+package gator.bench;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+// Seeded differential check of the two red-black tree backends: the same random inserts,
+// deletes and range deletes, many of them past the split/join threshold, go to an rb and an
+// array index, and after every step both must report the same color flip count and height,
+// and every so often the same books. ColorFlipCount relies on the two agreeing.
+// Run standalone with: java -cp out/bench gator.bench.BackendCheck [operations] [maxBookId] [seed]
+public final class BackendCheck {
+    private BackendCheck() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int maxBookId = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 2023;
+        SplittableRandom random = new SplittableRandom(seed);
+        Object rb = (Object) Hooks.NEW_INDEX.invokeExact("rb");
+        Object array = (Object) Hooks.NEW_INDEX.invokeExact("array");
+        for (int step = 0; step < operations; step++) {
+            int roll = random.nextInt(100);
+            int bookId = 1 + random.nextInt(maxBookId);
+            String operation;
+            if (roll < 60) {
+                Object book = Hooks.newBook(bookId);
+                Hooks.INSERT_KEY.invokeExact(rb, bookId, book);
+                Hooks.INSERT_KEY.invokeExact(array, bookId, book);
+                operation = "InsertBook(" + bookId + ")";
+            } else if (roll < 85) {
+                Hooks.DELETE_NODE.invokeExact(rb, bookId);
+                Hooks.DELETE_NODE.invokeExact(array, bookId);
+                operation = "DeleteBook(" + bookId + ")";
+            } else {
+                int hi = bookId + random.nextInt(random.nextBoolean() ? 64 : maxBookId / 8);
+                Object fromRb = (Object) Hooks.DELETE_RANGE.invokeExact(rb, bookId, hi);
+                Object fromArray = (Object) Hooks.DELETE_RANGE.invokeExact(array, bookId, hi);
+                operation = "DeleteBooks(" + bookId + ", " + hi + ")";
+                if (!Arrays.equals((Object[]) fromRb, (Object[]) fromArray)) {
+                    fail(step, operation, "deleted books differ");
+                }
+            }
+            int rbFlips = (int) Hooks.COLOR_FLIPS.invokeExact(rb);
+            int arrayFlips = (int) Hooks.COLOR_FLIPS.invokeExact(array);
+            if (rbFlips != arrayFlips) {
+                fail(step, operation, "color flips " + rbFlips + " vs " + arrayFlips);
+            }
+            int rbHeight = (int) Hooks.HEIGHT.invokeExact(rb);
+            int arrayHeight = (int) Hooks.HEIGHT.invokeExact(array);
+            if (rbHeight != arrayHeight) {
+                fail(step, operation, "height " + rbHeight + " vs " + arrayHeight);
+            }
+            if (step % 1000 == 0 && !sameBooks(rb, array)) {
+                fail(step, operation, "books differ");
+            }
+        }
+        if (!sameBooks(rb, array)) {
+            fail(operations, "end", "books differ");
+        }
+        System.out.println("rb and array agree over " + operations + " operations");
+    }
+
+    private static boolean sameBooks(Object rb, Object array) throws Throwable {
+        Iterator<?> fromRb = (Iterator<?>) Hooks.RANGE.invokeExact(rb, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        Iterator<?> fromArray = (Iterator<?>) Hooks.RANGE.invokeExact(array, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        while (fromRb.hasNext() && fromArray.hasNext()) {
+            if (fromRb.next() != fromArray.next()) {
+                return false;
+            }
+        }
+        return fromRb.hasNext() == fromArray.hasNext();
+    }
+
+    private static void fail(int step, String operation, String what) {
+        System.err.println("Step " + step + ", " + operation + ": " + what);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,77 @@
+package gator.bench;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Traffic on a shared ConcurrentLibraryEngine. borrowReturn borrows a random book and returns it;
+// readMostly mixes 95% FindClosestBook lookups with 5% InsertBook calls, where the skiplist
+// backend lets the readers skip the structure lock.
+// Compare thread counts with JMH's -t, e.g. BENCH_ARGS="ConcurrencyBench -t 8".
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ConcurrencyBench {
+    @Param({"100000"})
+    public int books;
+
+    @Param({"rb", "skiplist"})
+    public String backend;
+
+    private Object library;
+
+    @State(Scope.Thread)
+    public static class Client {
+        final PrintWriter sink = new PrintWriter(Writer.nullWriter());
+        SplittableRandom random;
+        int patronId;
+
+        @Setup(Level.Trial)
+        public void prepare() {
+            random = new SplittableRandom(Thread.currentThread().getId());
+            patronId = 1 + (int) (Thread.currentThread().getId() & 0xffff);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void loadCatalogue() throws Throwable {
+        library = Hooks.newEngine(backend, true);
+        for (int i = 0; i < books; i++) {
+            Hooks.INSERT_BOOK.invokeExact(library, 2 * i, "Book", "Author", true);
+        }
+    }
+
+    @Benchmark
+    public void borrowReturn(Client client) throws Throwable {
+        int bookId = 2 * client.random.nextInt(books);
+        Hooks.BORROW_BOOK.invokeExact(library, client.patronId, bookId, client.random.nextInt(1000), client.sink);
+        Hooks.RETURN_BOOK.invokeExact(library, client.patronId, bookId, client.sink);
+    }
+
+    @Benchmark
+    public void readMostly(Client client) throws Throwable {
+        int bookId = client.random.nextInt(2 * books);
+        if (client.random.nextInt(100) < 5) {
+            // Odd ids are never loaded, so the writers keep adding and replacing books between the even ones
+            Hooks.INSERT_BOOK.invokeExact(library, bookId | 1, "Book", "Author", true);
+        } else {
+            Hooks.FIND_CLOSEST_BOOK.invokeExact(library, bookId, client.sink);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package gator.bench;
+
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.Iterator;
+
+// The library lives in the default package, which named packages cannot import and JMH
+// cannot generate benchmarks for. Everything the benchmarks call is resolved here once
+// into static final MethodHandles with erased (Object) types; the JIT treats those as
+// constants and inlines straight through them.
+final class Hooks {
+    static final MethodHandle NEW_BOOK;
+    static final MethodHandle NEW_INDEX;
+    static final MethodHandle INSERT_KEY;
+    static final MethodHandle DELETE_NODE;
+    static final MethodHandle DELETE_RANGE;
+    static final MethodHandle FLOOR;
+    static final MethodHandle LOWER;
+    static final MethodHandle HIGHER;
+    static final MethodHandle RANGE;
+    static final MethodHandle COLOR_FLIPS;
+    static final MethodHandle HEIGHT;
+    static final MethodHandle BULK_LOAD;
+    static final MethodHandle NEW_RESERVATION_NODE;
+    static final MethodHandle EMPTY_RESERVATION_NODE;
+    static final MethodHandle NEW_RESERVATION;
+    static final MethodHandle RESERVATION_ADD;
+    static final MethodHandle RESERVATION_POLL;
+    static final MethodHandle RESERVATION_REMOVE;
+    static final MethodHandle RESERVATION_UPDATE_PRIORITY;
+    static final MethodHandle RESERVATION_PATRON_LIST;
+    static final MethodHandle NEW_ENGINE;
+    static final MethodHandle NEW_CONCURRENT_ENGINE;
+    static final MethodHandle INSERT_BOOK;
+    static final MethodHandle BORROW_BOOK;
+    static final MethodHandle RETURN_BOOK;
+    static final MethodHandle FIND_CLOSEST_BOOK;
+    static final MethodHandle PRINT_BOOKS;
+    static final MethodHandle PRINT_BOOKS_PAGE;
+    static final MethodHandle COUNT_BOOKS;
+    static final MethodHandle FIND_BY_AUTHOR;
+    static final MethodHandle FIND_BY_TITLE_PREFIX;
+    static final MethodHandle MAIN;
+
+    static {
+        try {
+            MethodHandles.Lookup caller = MethodHandles.lookup();
+            Class<?> bookNode = Class.forName("BookNode");
+            Class<?> bookIndex = Class.forName("BookIndex");
+            Class<?> reservationNode = Class.forName("ReservationNode");
+            Class<?> reservation = Class.forName("Reservation");
+            Class<?> library = Class.forName("GatorLibrary");
+            Class<?> engine = Class.forName("LibraryEngine");
+            Class<?> concurrentEngine = Class.forName("ConcurrentLibraryEngine");
+            MethodHandles.Lookup inLibrary = MethodHandles.privateLookupIn(library, caller);
+            MethodHandles.Lookup inBooks = MethodHandles.privateLookupIn(bookNode, caller);
+
+            NEW_BOOK = erase(inBooks.findConstructor(Class.forName("HeapBookNode"),
+                    MethodType.methodType(void.class, int.class, String.class, String.class, boolean.class, reservationNode)));
+            NEW_INDEX = erase(inLibrary.findStatic(engine, "createIndex", MethodType.methodType(bookIndex, String.class)));
+            INSERT_KEY = erase(inBooks.findVirtual(bookIndex, "insertKey", MethodType.methodType(void.class, int.class, bookNode)));
+            DELETE_NODE = erase(inBooks.findVirtual(bookIndex, "deleteNode", MethodType.methodType(void.class, int.class)));
+            DELETE_RANGE = erase(inBooks.findVirtual(bookIndex, "deleteRange",
+                    MethodType.methodType(bookNode.arrayType(), int.class, int.class)));
+            FLOOR = erase(inBooks.findVirtual(bookIndex, "floor", MethodType.methodType(bookNode, int.class)));
+            LOWER = erase(inBooks.findVirtual(bookIndex, "lower", MethodType.methodType(bookNode, int.class)));
+            HIGHER = erase(inBooks.findVirtual(bookIndex, "higher", MethodType.methodType(bookNode, int.class)));
+            RANGE = erase(inBooks.findVirtual(bookIndex, "range", MethodType.methodType(Iterator.class, int.class, int.class)));
+            COLOR_FLIPS = erase(inBooks.findVirtual(bookIndex, "getColorFlips", MethodType.methodType(int.class)));
+            HEIGHT = erase(inBooks.findVirtual(bookIndex, "height", MethodType.methodType(int.class)));
+            BULK_LOAD = erase(inBooks.findVirtual(bookIndex, "bulkLoad",
+                    MethodType.methodType(void.class, bookNode.arrayType(), int.class)));
+            NEW_RESERVATION_NODE = erase(inBooks.findConstructor(reservationNode, MethodType.methodType(void.class)));
+            EMPTY_RESERVATION_NODE = erase(inBooks.findStaticGetter(reservationNode, "EMPTY", reservationNode));
+            NEW_RESERVATION = erase(inBooks.findConstructor(reservation,
+                    MethodType.methodType(void.class, int.class, int.class, long.class)));
+            RESERVATION_ADD = erase(inBooks.findVirtual(reservationNode, "add", MethodType.methodType(void.class, reservation)));
+            RESERVATION_POLL = erase(inBooks.findVirtual(reservationNode, "poll", MethodType.methodType(reservation)));
+            RESERVATION_REMOVE = erase(inBooks.findVirtual(reservationNode, "remove", MethodType.methodType(reservation, int.class)));
+            RESERVATION_UPDATE_PRIORITY = erase(inBooks.findVirtual(reservationNode, "updatePriority",
+                    MethodType.methodType(boolean.class, int.class, int.class)));
+            RESERVATION_PATRON_LIST = erase(inBooks.findVirtual(reservationNode, "getPatronList",
+                    MethodType.methodType(String.class, int.class)));
+            NEW_ENGINE = erase(inLibrary.findConstructor(engine, MethodType.methodType(void.class, bookIndex)));
+            NEW_CONCURRENT_ENGINE = erase(inLibrary.findConstructor(concurrentEngine, MethodType.methodType(void.class, bookIndex)));
+            INSERT_BOOK = erase(inLibrary.findVirtual(engine, "insertBook",
+                    MethodType.methodType(void.class, int.class, String.class, String.class, boolean.class)));
+            BORROW_BOOK = erase(inLibrary.findVirtual(engine, "borrowBook",
+                    MethodType.methodType(void.class, int.class, int.class, int.class, PrintWriter.class)));
+            RETURN_BOOK = erase(inLibrary.findVirtual(engine, "returnBook",
+                    MethodType.methodType(void.class, int.class, int.class, PrintWriter.class)));
+            FIND_CLOSEST_BOOK = erase(inLibrary.findVirtual(engine, "findClosestBook",
+                    MethodType.methodType(void.class, int.class, PrintWriter.class)));
+            PRINT_BOOKS = erase(inLibrary.findVirtual(engine, "printBooks",
+                    MethodType.methodType(void.class, int.class, int.class, PrintWriter.class)));
+            PRINT_BOOKS_PAGE = erase(inLibrary.findVirtual(engine, "printBooksPage",
+                    MethodType.methodType(void.class, int.class, int.class, int.class, int.class, PrintWriter.class)));
+            COUNT_BOOKS = erase(inLibrary.findVirtual(engine, "countBooks",
+                    MethodType.methodType(void.class, int.class, int.class, PrintWriter.class)));
+            FIND_BY_AUTHOR = erase(inLibrary.findVirtual(engine, "findByAuthor",
+                    MethodType.methodType(void.class, String.class, int.class, PrintWriter.class)));
+            FIND_BY_TITLE_PREFIX = erase(inLibrary.findVirtual(engine, "findByTitlePrefix",
+                    MethodType.methodType(void.class, String.class, int.class, PrintWriter.class)));
+            MAIN = inLibrary.findStatic(library, "main", MethodType.methodType(void.class, String[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Hooks() {
+    }
+
+    // Empty library engine over the named index backend
+    static Object newEngine(String indexKind, boolean concurrent) throws Throwable {
+        Object index = (Object) NEW_INDEX.invokeExact(indexKind);
+        return concurrent ? (Object) NEW_CONCURRENT_ENGINE.invokeExact(index) : (Object) NEW_ENGINE.invokeExact(index);
+    }
+
+    static Object newBook(int bookId) throws Throwable {
+        return (Object) NEW_BOOK.invokeExact(bookId, "Book", "Author", true, (Object) EMPTY_RESERVATION_NODE.invokeExact());
+    }
+
+    // BookNode[] holding a new book for each id, in the given order
+    static Object newBooks(int[] bookIds) throws Throwable {
+        Object books = Array.newInstance(Class.forName("BookNode"), bookIds.length);
+        for (int i = 0; i < bookIds.length; i++) {
+            Array.set(books, i, newBook(bookIds[i]));
+        }
+        return books;
+    }
+
+    // Replace every library type in the signature with Object, JDK types stay as they are
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isLibraryType(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isLibraryType(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isLibraryType(Class<?> type) {
+        return !type.isPrimitive() && type.getClassLoader() != null;
+    }
+}
@@ -0,0 +1,83 @@
+package gator.bench;
+
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The ordered index on its own, without the engine around it: point lookups, the lower and
+// higher neighbours FindClosestBook asks for, and long range scans as PrintBooks makes them.
+// Books have ids 0, 10, 20, ... and are inserted in random order, so the nodes lie in memory
+// the way a catalogue grown by InsertBook leaves them rather than in key order.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms16g", "-Xmx16g"})
+public class IndexBench {
+    private static final int ID_STEP = 10;
+    private static final int TARGETS = 1 << 12;
+
+    @Param({"1000000", "10000000", "50000000"})
+    public int books;
+
+    @Param({"rb", "array", "skiplist", "bplus"})
+    public String backend;
+
+    /** Books visited by one range scan*/
+    @Param({"10000"})
+    public int scanLength;
+
+    private Object index;
+    private int[] targets;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void buildIndex() throws Throwable {
+        index = (Object) Hooks.NEW_INDEX.invokeExact(backend);
+        for (int key : KeyOrders.generate("random", books, 42)) {
+            Hooks.INSERT_KEY.invokeExact(index, key * ID_STEP, Hooks.newBook(key * ID_STEP));
+        }
+        SplittableRandom random = new SplittableRandom(13);
+        targets = new int[TARGETS];
+        for (int i = 0; i < TARGETS; i++) {
+            targets[i] = random.nextInt(books) * ID_STEP;
+        }
+    }
+
+    // Every target is the id of a book
+    @Benchmark
+    public Object pointLookup() throws Throwable {
+        return (Object) Hooks.FLOOR.invokeExact(index, targets[next++ & (TARGETS - 1)]);
+    }
+
+    // Every target falls between two books
+    @Benchmark
+    public void neighbours(Blackhole sink) throws Throwable {
+        int target = targets[next++ & (TARGETS - 1)] + ID_STEP / 2;
+        sink.consume((Object) Hooks.LOWER.invokeExact(index, target));
+        sink.consume((Object) Hooks.HIGHER.invokeExact(index, target));
+    }
+
+    @Benchmark
+    public void rangeScan(Blackhole sink) throws Throwable {
+        int low = targets[next++ & (TARGETS - 1)];
+        Iterator<?> range = (Iterator<?>) Hooks.RANGE.invokeExact(index, low, low + (scanLength - 1) * ID_STEP);
+        while (range.hasNext()) {
+            sink.consume(range.next());
+        }
+    }
+}
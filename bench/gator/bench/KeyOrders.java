@@ -0,0 +1,46 @@
+package gator.bench;
+
+import java.util.SplittableRandom;
+
+// Key sequences for the tree benchmarks
+final class KeyOrders {
+    private KeyOrders() {
+    }
+
+    // sequential: 0..n-1 ascending, the classic rotation-heavy case for a red-black tree
+    // random: a seeded shuffle of 0..n-1
+    // adversarial: alternates between the smallest and largest remaining key, so every
+    //              insert lands at the bottom of the leftmost or rightmost spine
+    static int[] generate(String order, int size, long seed) {
+        int[] keys = new int[size];
+        switch (order) {
+            case "sequential":
+                for (int i = 0; i < size; i++) {
+                    keys[i] = i;
+                }
+                break;
+            case "random":
+                for (int i = 0; i < size; i++) {
+                    keys[i] = i;
+                }
+                SplittableRandom random = new SplittableRandom(seed);
+                for (int i = size - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    int temp = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = temp;
+                }
+                break;
+            case "adversarial":
+                int low = 0;
+                int high = size - 1;
+                for (int i = 0; i < size; i++) {
+                    keys[i] = (i & 1) == 0 ? low++ : high--;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown key order: " + order);
+        }
+        return keys;
+    }
+}
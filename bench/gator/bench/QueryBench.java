@@ -0,0 +1,87 @@
+package gator.bench;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// FindClosestBook, PrintBooks, CountBooks and PrintBooksPage against catalogues of growing size.
+// Books have ids 0, 10, 20, ... so closest-book targets fall between two books.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class QueryBench {
+    private static final int ID_STEP = 10;
+    private static final int TARGETS = 1 << 12;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int books;
+
+    @Param({"rb", "array", "skiplist", "bplus"})
+    public String backend;
+
+    /** Width of the id range handed to PrintBooks*/
+    @Param({"1000"})
+    public int rangeWidth;
+
+    /** Page of 10 books this far into a range that spans the whole catalogue*/
+    @Param({"1000"})
+    public int pageOffset;
+
+    private final PrintWriter sink = new PrintWriter(Writer.nullWriter());
+    private Object library;
+    private int[] targets;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void loadCatalogue() throws Throwable {
+        library = Hooks.newEngine(backend, false);
+        for (int i = 0; i < books; i++) {
+            Hooks.INSERT_BOOK.invokeExact(library, i * ID_STEP, "Book", "Author", true);
+        }
+        SplittableRandom random = new SplittableRandom(13);
+        targets = new int[TARGETS];
+        for (int i = 0; i < TARGETS; i++) {
+            targets[i] = random.nextInt(books * ID_STEP);
+        }
+    }
+
+    @Benchmark
+    public void findClosestBook() throws Throwable {
+        Hooks.FIND_CLOSEST_BOOK.invokeExact(library, targets[next++ & (TARGETS - 1)], sink);
+    }
+
+    @Benchmark
+    public void printBooks() throws Throwable {
+        int low = targets[next++ & (TARGETS - 1)];
+        Hooks.PRINT_BOOKS.invokeExact(library, low, low + rangeWidth, sink);
+    }
+
+    // O(log n) on rb whatever the range covers, bplus counts whole leaves, the other backends walk it
+    @Benchmark
+    public void countBooks() throws Throwable {
+        int low = targets[next++ & (TARGETS - 1)];
+        Hooks.COUNT_BOOKS.invokeExact(library, low, Integer.MAX_VALUE, sink);
+    }
+
+    @Benchmark
+    public void printBooksPage() throws Throwable {
+        int low = targets[next++ & (TARGETS - 1)];
+        Hooks.PRINT_BOOKS_PAGE.invokeExact(library, low, Integer.MAX_VALUE, pageOffset, 10, sink);
+    }
+}
@@ -0,0 +1,67 @@
+package gator.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End-to-end GatorLibrary.main over a generated input file, one replay per invocation
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ReplayBench {
+    @Param({"1000000"})
+    public int commands;
+
+    @Param({"200000"})
+    public int maxBookId;
+
+    @Param({"false", "true"})
+    public String batch;
+
+    @Param({"rb", "array"})
+    public String backend;
+
+    private Path directory;
+    private String[] args;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        directory = Files.createTempDirectory("gator-replay");
+        Path input = directory.resolve("replay.txt");
+        WorkloadGenerator.write(input, commands, maxBookId, 2023);
+        args = new String[]{input.toString()};
+        System.setProperty("gator.batch", batch);
+        System.setProperty("gator.index", backend);
+    }
+
+    @Benchmark
+    public void replay() throws Throwable {
+        Hooks.MAIN.invokeExact(args);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws Exception {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
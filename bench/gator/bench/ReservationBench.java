@@ -0,0 +1,54 @@
+package gator.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One add followed by one poll on a waitlist held at a steady depth
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReservationBench {
+    private static final int POOL_SIZE = 1 << 12;
+
+    @Param({"1", "4", "16", "20", "64"})
+    public int depth;
+
+    private Object heap;
+    private Object[] pool;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void fill() throws Throwable {
+        SplittableRandom random = new SplittableRandom(7);
+        pool = new Object[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool[i] = (Object) Hooks.NEW_RESERVATION.invokeExact(i, random.nextInt(1_000_000), (long) i);
+        }
+        heap = (Object) Hooks.NEW_RESERVATION_NODE.invokeExact();
+        for (int i = 0; i < depth - 1; i++) {
+            Hooks.RESERVATION_ADD.invokeExact(heap, pool[i]);
+        }
+        next = depth;
+    }
+
+    @Benchmark
+    public Object addPoll() throws Throwable {
+        Hooks.RESERVATION_ADD.invokeExact(heap, pool[next++ & (POOL_SIZE - 1)]);
+        return (Object) Hooks.RESERVATION_POLL.invokeExact(heap);
+    }
+}
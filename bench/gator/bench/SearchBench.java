@@ -0,0 +1,73 @@
+package gator.bench;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// FindByAuthor and FindByTitlePrefix, each asking for 10 books, with the search indexes and
+// with -Dgator.search=false, where both scan the catalogue.
+// Every book gets one of AUTHORS authors and a title of two words out of WORDS, so an author
+// has books/AUTHORS books and a one-word prefix matches about books/WORDS titles.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class SearchBench {
+    private static final int AUTHORS = 1000;
+    private static final int WORDS = 256;
+    private static final int QUERIES = 1 << 10;
+
+    @Param({"10000", "100000", "1000000"})
+    public int books;
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private final PrintWriter sink = new PrintWriter(Writer.nullWriter());
+    private Object library;
+    private String[] authors;
+    private String[] prefixes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void loadCatalogue() throws Throwable {
+        System.setProperty("gator.search", String.valueOf(indexed));
+        library = Hooks.newEngine("rb", false);
+        SplittableRandom random = new SplittableRandom(17);
+        for (int i = 0; i < books; i++) {
+            String title = "Word" + random.nextInt(WORDS) + " Word" + random.nextInt(WORDS);
+            Hooks.INSERT_BOOK.invokeExact(library, i, title, "Author" + random.nextInt(AUTHORS), true);
+        }
+        authors = new String[QUERIES];
+        prefixes = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            authors[i] = "author" + random.nextInt(AUTHORS);
+            prefixes[i] = "word" + random.nextInt(WORDS);
+        }
+    }
+
+    @Benchmark
+    public void findByAuthor() throws Throwable {
+        Hooks.FIND_BY_AUTHOR.invokeExact(library, authors[next++ & (QUERIES - 1)], 10, sink);
+    }
+
+    @Benchmark
+    public void findByTitlePrefix() throws Throwable {
+        Hooks.FIND_BY_TITLE_PREFIX.invokeExact(library, prefixes[next++ & (QUERIES - 1)], 10, sink);
+    }
+}
@@ -0,0 +1,109 @@
+package gator.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Building and tearing down a whole index, per backend and key order.
+// bulkLoad builds the same index from the keys in sorted order, as the import mode does.
+// deleteRange takes the middle tenth of the keys out in one call, as DeleteBooks does;
+// deleteRangeByNode deletes the same keys one at a time for comparison.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TreeBench {
+    @Param({"rb", "array", "bplus"})
+    public String backend;
+
+    @Param({"sequential", "random", "adversarial"})
+    public String order;
+
+    @Param({"100000"})
+    public int size;
+
+    private int[] keys;
+    private Object[] books;
+    private Object sortedBooks;
+    private int[] rangeKeys;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Throwable {
+        keys = KeyOrders.generate(order, size, 42);
+        books = new Object[size];
+        for (int i = 0; i < size; i++) {
+            books[i] = Hooks.newBook(keys[i]);
+        }
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        sortedBooks = Hooks.newBooks(sorted);
+        rangeKeys = Arrays.copyOfRange(sorted, size * 9 / 20, size * 11 / 20);
+    }
+
+    // A freshly built tree for every deleteNode invocation, built outside the measurement
+    @State(Scope.Thread)
+    public static class FullTree {
+        Object tree;
+
+        @Setup(Level.Invocation)
+        public void build(TreeBench bench) throws Throwable {
+            tree = bench.build();
+        }
+    }
+
+    @Benchmark
+    public Object insertKey() throws Throwable {
+        return build();
+    }
+
+    @Benchmark
+    public Object bulkLoad() throws Throwable {
+        Object tree = (Object) Hooks.NEW_INDEX.invokeExact(backend);
+        Hooks.BULK_LOAD.invokeExact(tree, sortedBooks, size);
+        return tree;
+    }
+
+    @Benchmark
+    public Object deleteNode(FullTree full) throws Throwable {
+        Object tree = full.tree;
+        for (int key : keys) {
+            Hooks.DELETE_NODE.invokeExact(tree, key);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public Object deleteRange(FullTree full) throws Throwable {
+        return (Object) Hooks.DELETE_RANGE.invokeExact(full.tree, rangeKeys[0], rangeKeys[rangeKeys.length - 1]);
+    }
+
+    @Benchmark
+    public Object deleteRangeByNode(FullTree full) throws Throwable {
+        Object tree = full.tree;
+        for (int key : rangeKeys) {
+            Hooks.DELETE_NODE.invokeExact(tree, key);
+        }
+        return tree;
+    }
+
+    private Object build() throws Throwable {
+        Object tree = (Object) Hooks.NEW_INDEX.invokeExact(backend);
+        for (int i = 0; i < keys.length; i++) {
+            Hooks.INSERT_KEY.invokeExact(tree, keys[i], books[i]);
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,59 @@
+package gator.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// CancelReservation and UpdatePriority on one popular title: a waitlist of size patrons,
+// where a random patron cancels and books again, or gets a new priority. printUnchanged is
+// PrintBook's Reservations line for a wait list that did not change since the last print.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class WaitlistBench {
+    @Param({"8", "1000", "5000"})
+    public int size;
+
+    private Object heap;
+    private SplittableRandom random;
+
+    @Setup(Level.Iteration)
+    public void fill() throws Throwable {
+        random = new SplittableRandom(11);
+        heap = (Object) Hooks.NEW_RESERVATION_NODE.invokeExact();
+        for (int patronId = 0; patronId < size; patronId++) {
+            Object reservation = (Object) Hooks.NEW_RESERVATION.invokeExact(patronId, random.nextInt(1_000_000), (long) patronId);
+            Hooks.RESERVATION_ADD.invokeExact(heap, reservation);
+        }
+    }
+
+    @Benchmark
+    public void cancelAndRebook() throws Throwable {
+        Object reservation = (Object) Hooks.RESERVATION_REMOVE.invokeExact(heap, random.nextInt(size));
+        Hooks.RESERVATION_ADD.invokeExact(heap, reservation);
+    }
+
+    @Benchmark
+    public boolean updatePriority() throws Throwable {
+        return (boolean) Hooks.RESERVATION_UPDATE_PRIORITY.invokeExact(heap, random.nextInt(size), random.nextInt(1_000_000));
+    }
+
+    @Benchmark
+    public String printUnchanged() throws Throwable {
+        return (String) Hooks.RESERVATION_PATRON_LIST.invokeExact(heap, -1);
+    }
+}
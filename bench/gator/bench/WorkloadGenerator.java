@@ -0,0 +1,72 @@
+package gator.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// Seeded generator of GatorLibrary input files.
+// The mix leans on single-book commands the way production traffic does: about a third
+// inserts, then borrows, returns, prints, small PrintBooks ranges, closest-book lookups,
+// deletes and the odd ColorFlipCount, ending with Quit().
+// Run standalone with: java -cp out/bench gator.bench.WorkloadGenerator <file> <commands> <maxBookId> [seed]
+public final class WorkloadGenerator {
+    private WorkloadGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 2023;
+        write(Path.of(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), seed);
+    }
+
+    public static void write(Path file, int commands, int maxBookId, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] books = new int[Math.min(commands, maxBookId) + 1];
+        Map<Integer, Integer> positions = new HashMap<>();
+        int bookCount = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            for (int written = 0; written < commands; written++) {
+                if (bookCount == 0 || random.nextInt(100) < 35) {
+                    int bookId = 1 + random.nextInt(maxBookId);
+                    if (positions.putIfAbsent(bookId, bookCount) == null) {
+                        books[bookCount++] = bookId;
+                        out.write("InsertBook(" + bookId + ", \"Book " + bookId + "\", \"Author " + bookId % 97 + "\", \"Yes\")");
+                    } else {
+                        out.write("PrintBook(" + bookId + ")");
+                    }
+                    out.newLine();
+                    continue;
+                }
+                int bookId = books[random.nextInt(bookCount)];
+                int kind = random.nextInt(100);
+                if (kind < 35) {
+                    out.write("BorrowBook(" + (1 + random.nextInt(5000)) + ", " + bookId + ", " + (1 + random.nextInt(1_000_000)) + ")");
+                } else if (kind < 60) {
+                    out.write("ReturnBook(" + (1 + random.nextInt(5000)) + ", " + bookId + ")");
+                } else if (kind < 80) {
+                    out.write("PrintBook(" + bookId + ")");
+                } else if (kind < 85) {
+                    out.write("PrintBooks(" + bookId + ", " + (bookId + random.nextInt(Math.max(1, maxBookId / 2000))) + ")");
+                } else if (kind < 90) {
+                    out.write("FindClosestBook(" + (1 + random.nextInt(maxBookId)) + ")");
+                } else if (kind < 97) {
+                    out.write("DeleteBook(" + bookId + ")");
+                    int position = positions.remove(bookId);
+                    int last = books[--bookCount];
+                    books[position] = last;
+                    if (last != bookId) {
+                        positions.put(last, position);
+                    }
+                } else {
+                    out.write("ColorFlipCount()");
+                }
+                out.newLine();
+            }
+            out.write("Quit()");
+            out.newLine();
+        }
+    }
+}